@@ -0,0 +1,144 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.os.ParcelFileDescriptor;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends theme bundles over the Wearable Data Layer. Only layers missing from the watch's
+ * published list of held hashes are attached as assets.
+ */
+class DataLayerThemeTransport implements ThemeTransport {
+
+    private static final long CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    DataLayerThemeTransport(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    @Override
+    public Point getWatchSurfaceSize() throws IOException {
+        DataMap surface = getWatchSurface();
+        if (surface == null) {
+            return null;
+        }
+        return new Point(surface.getInt(ThemeContract.KEY_WIDTH), surface.getInt(ThemeContract.KEY_HEIGHT));
+    }
+
+    @Override
+    public void push(ThemeBundle bundle) throws IOException {
+        Set<String> held = getHeldHashes();
+
+        PutDataMapRequest request = PutDataMapRequest.create(ThemeContract.PATH_THEME);
+        DataMap map = request.getDataMap();
+        map.putInt(ThemeContract.KEY_HAND_COLOUR, bundle.handColour);
+        map.putInt(ThemeContract.KEY_HIGHLIGHT_COLOUR, bundle.highlightColour);
+        map.putInt(ThemeContract.KEY_SHADOW_COLOUR, bundle.shadowColour);
+        map.putString(ThemeContract.KEY_DIGIT_STYLE, bundle.digitStyle);
+
+        DataMap layers = new DataMap();
+        DataMap assets = new DataMap();
+        for (Map.Entry<String, String> layer : bundle.getLayerHashes().entrySet()) {
+            layers.putString(layer.getKey(), layer.getValue());
+        }
+        for (Map.Entry<String, byte[]> layer : bundle.getLayersToSend(held).entrySet()) {
+            assets.putAsset(layer.getKey(), Asset.createFromBytes(layer.getValue()));
+        }
+        map.putDataMap(ThemeContract.KEY_LAYERS, layers);
+        map.putDataMap(ThemeContract.KEY_ASSETS, assets);
+        map.putLong(ThemeContract.KEY_SENT_AT, System.currentTimeMillis());
+
+        putUrgent(request);
+    }
+
+    @Override
+    public void pushPhoto(ParcelFileDescriptor photo) throws IOException {
+        PutDataMapRequest request = PutDataMapRequest.create(ThemeContract.PATH_PHOTO);
+        request.getDataMap().putAsset(ThemeContract.KEY_PHOTO, Asset.createFromFd(photo));
+        request.getDataMap().putLong(ThemeContract.KEY_SENT_AT, System.currentTimeMillis());
+        putUrgent(request);
+    }
+
+    private void putUrgent(PutDataMapRequest request) throws IOException {
+        PutDataRequest putRequest = request.asPutDataRequest();
+        putRequest.setUrgent();
+
+        connect();
+        try {
+            DataApi.DataItemResult result =
+                    Wearable.DataApi.putDataItem(mGoogleApiClient, putRequest).await();
+            if (!result.getStatus().isSuccess()) {
+                throw new IOException("Push to " + request.getUri().getPath() + " failed: "
+                        + result.getStatus());
+            }
+        } finally {
+            mGoogleApiClient.disconnect();
+        }
+    }
+
+    private Set<String> getHeldHashes() throws IOException {
+        DataMap surface = getWatchSurface();
+        if (surface == null) {
+            return Collections.emptySet();
+        }
+        ArrayList<String> held = surface.getStringArrayList(ThemeContract.KEY_HELD_HASHES);
+        return held == null ? Collections.<String>emptySet() : new HashSet<>(held);
+    }
+
+    private DataMap getWatchSurface() throws IOException {
+        connect();
+        try {
+            DataItemBuffer items = Wearable.DataApi.getDataItems(mGoogleApiClient).await();
+            try {
+                if (!items.getStatus().isSuccess()) {
+                    throw new IOException("Reading data items failed: " + items.getStatus());
+                }
+                List<DataItem> surfaces = new ArrayList<>();
+                for (DataItem item : items) {
+                    if (ThemeContract.PATH_SURFACE.equals(item.getUri().getPath())) {
+                        surfaces.add(item.freeze());
+                    }
+                }
+                /* Only a single watch is supported; take the first that reported. */
+                return surfaces.isEmpty() ? null : DataMapItem.fromDataItem(surfaces.get(0)).getDataMap();
+            } finally {
+                items.release();
+            }
+        } finally {
+            mGoogleApiClient.disconnect();
+        }
+    }
+
+    private void connect() throws IOException {
+        ConnectionResult result =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!result.isSuccess()) {
+            throw new IOException("Could not connect to the Data Layer: " + result);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.somo.face.bezierlerpface;
+
+import android.graphics.Point;
+import android.os.ParcelFileDescriptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-process stand-in for the Data Layer. Keeps the "watch" side asset store in memory and
+ * decides what to send with the same {@link ThemeBundle#getLayersToSend} call as
+ * {@link DataLayerThemeTransport}, so tests can check what would have been transferred.
+ */
+class LocalThemeTransport implements ThemeTransport {
+
+    private final Point mSurfaceSize;
+    private final Map<String, byte[]> mWatchAssets = new HashMap<>();
+    private ThemeBundle mAppliedBundle;
+    private int mTransferredCount;
+    private int mPhotoCount;
+
+    LocalThemeTransport(Point surfaceSize) {
+        mSurfaceSize = surfaceSize;
+    }
+
+    @Override
+    public Point getWatchSurfaceSize() {
+        return mSurfaceSize;
+    }
+
+    @Override
+    public void push(ThemeBundle bundle) {
+        Map<String, byte[]> toSend = bundle.getLayersToSend(mWatchAssets.keySet());
+        mWatchAssets.putAll(toSend);
+        mTransferredCount += toSend.size();
+        mAppliedBundle = bundle;
+    }
+
+    @Override
+    public void pushPhoto(ParcelFileDescriptor photo) {
+        mPhotoCount++;
+    }
+
+    ThemeBundle getAppliedBundle() {
+        return mAppliedBundle;
+    }
+
+    /** Number of layers that actually crossed the "wire" since this transport was created. */
+    int getTransferredCount() {
+        return mTransferredCount;
+    }
+
+    int getPhotoCount() {
+        return mPhotoCount;
+    }
+}
@@ -1,13 +1,160 @@
 package com.somo.face.bezierlerpface;
 
-import android.support.v7.app.AppCompatActivity;
+import android.content.Intent;
+import android.graphics.Point;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.View;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.TextView;
+
+import java.io.IOException;
 
+/**
+ * Lets the user pick a background on the phone, prepares a theme bundle for the paired watch
+ * and pushes it over the Data Layer. Photos can also be sent as they are, for the watch to
+ * import itself.
+ */
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+
+    private static final int PICK_BACKGROUND_REQUEST_CODE = 1;
+    private static final int PICK_PHOTO_REQUEST_CODE = 2;
+
+    private ThemeTransport mTransport;
+    private Button mChooseButton;
+    private Button mPhotoButton;
+    private CheckBox mFilledDigits;
+    private TextView mStatus;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+
+        mTransport = new DataLayerThemeTransport(getApplicationContext());
+
+        mStatus = (TextView) findViewById(R.id.status);
+        mFilledDigits = (CheckBox) findViewById(R.id.filled_digits);
+        mChooseButton = (Button) findViewById(R.id.choose_background);
+        mChooseButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                pickImage(PICK_BACKGROUND_REQUEST_CODE);
+            }
+        });
+        mPhotoButton = (Button) findViewById(R.id.send_photo);
+        mPhotoButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                pickImage(PICK_PHOTO_REQUEST_CODE);
+            }
+        });
+    }
+
+    private void pickImage(int requestCode) {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        startActivityForResult(intent, requestCode);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == PICK_BACKGROUND_REQUEST_CODE) {
+            String digitStyle = mFilledDigits.isChecked()
+                    ? ThemeContract.DIGIT_STYLE_FILL : ThemeContract.DIGIT_STYLE_STROKE;
+            new SendThemeTask(digitStyle).execute(data.getData());
+        } else if (requestCode == PICK_PHOTO_REQUEST_CODE) {
+            new SendPhotoTask().execute(data.getData());
+        }
+    }
+
+    /*
+     * Prepares and pushes a theme off the main thread; both steps block.
+     */
+    private class SendThemeTask extends AsyncTask<Uri, Void, Boolean> {
+        private final String mDigitStyle;
+
+        SendThemeTask(String digitStyle) {
+            mDigitStyle = digitStyle;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mChooseButton.setEnabled(false);
+            mPhotoButton.setEnabled(false);
+            mStatus.setText(R.string.theme_sending);
+        }
+
+        @Override
+        protected Boolean doInBackground(Uri... uris) {
+            try {
+                Point surfaceSize = mTransport.getWatchSurfaceSize();
+                ThemeBundle bundle = new ThemePreparer(getContentResolver())
+                        .prepare(uris[0], surfaceSize, mDigitStyle);
+                mTransport.push(bundle);
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "Sending theme failed", e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean sent) {
+            mChooseButton.setEnabled(true);
+            mPhotoButton.setEnabled(true);
+            mStatus.setText(sent ? R.string.theme_sent : R.string.theme_failed);
+        }
+    }
+
+    /*
+     * Hands the photo's file descriptor to the Data Layer, which streams it to the watch
+     * without it being decoded here.
+     */
+    private class SendPhotoTask extends AsyncTask<Uri, Void, Boolean> {
+
+        @Override
+        protected void onPreExecute() {
+            mChooseButton.setEnabled(false);
+            mPhotoButton.setEnabled(false);
+            mStatus.setText(R.string.theme_sending);
+        }
+
+        @Override
+        protected Boolean doInBackground(Uri... uris) {
+            try {
+                ParcelFileDescriptor photo = getContentResolver().openFileDescriptor(uris[0], "r");
+                if (photo == null) {
+                    throw new IOException("Could not open " + uris[0]);
+                }
+                try {
+                    mTransport.pushPhoto(photo);
+                } finally {
+                    photo.close();
+                }
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "Sending photo failed", e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean sent) {
+            mChooseButton.setEnabled(true);
+            mPhotoButton.setEnabled(true);
+            mStatus.setText(sent ? R.string.theme_sent : R.string.theme_failed);
+        }
     }
 }
@@ -0,0 +1,74 @@
+package com.somo.face.bezierlerpface;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A theme ready to be sent to the watch: colours, digit style and encoded background layers.
+ * Layers are addressed by the SHA-1 of their bytes so the watch can skip the ones it already
+ * holds.
+ */
+class ThemeBundle {
+
+    final int handColour;
+    final int highlightColour;
+    final int shadowColour;
+    final String digitStyle;
+
+    private final Map<String, byte[]> mLayers = new LinkedHashMap<>();
+    private final Map<String, String> mLayerHashes = new LinkedHashMap<>();
+
+    ThemeBundle(int handColour, int highlightColour, int shadowColour, String digitStyle) {
+        this.handColour = handColour;
+        this.highlightColour = highlightColour;
+        this.shadowColour = shadowColour;
+        this.digitStyle = digitStyle;
+    }
+
+    void putLayer(String role, byte[] encoded) {
+        mLayers.put(role, encoded);
+        mLayerHashes.put(role, hash(encoded));
+    }
+
+    /** Layer role to content hash. */
+    Map<String, String> getLayerHashes() {
+        return Collections.unmodifiableMap(mLayerHashes);
+    }
+
+    byte[] getLayer(String role) {
+        return mLayers.get(role);
+    }
+
+    /**
+     * Returns the layers that have to be transferred to a watch holding {@code held}, keyed by
+     * content hash. Layers shared by several roles are only sent once.
+     */
+    Map<String, byte[]> getLayersToSend(Collection<String> held) {
+        Map<String, byte[]> toSend = new LinkedHashMap<>();
+        for (Map.Entry<String, String> layer : mLayerHashes.entrySet()) {
+            String hash = layer.getValue();
+            if (!held.contains(hash)) {
+                toSend.put(hash, mLayers.get(layer.getKey()));
+            }
+        }
+        return toSend;
+    }
+
+    static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
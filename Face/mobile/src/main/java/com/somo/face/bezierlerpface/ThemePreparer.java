@@ -0,0 +1,128 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.support.v7.graphics.Palette;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Does the heavy image work on the phone: decodes the chosen background, crops and scales it to
+ * the watch's surface, renders the gray ambient variant and picks hand colours from the result,
+ * so the watch only has to load surface-sized layers.
+ */
+class ThemePreparer {
+
+    /* Used when the watch hasn't reported its surface size yet. */
+    private static final int DEFAULT_SURFACE_SIZE = 320;
+
+    private final ContentResolver mContentResolver;
+
+    ThemePreparer(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    ThemeBundle prepare(Uri background, Point surfaceSize, String digitStyle) throws IOException {
+        int width = surfaceSize != null ? surfaceSize.x : DEFAULT_SURFACE_SIZE;
+        int height = surfaceSize != null ? surfaceSize.y : DEFAULT_SURFACE_SIZE;
+
+        Bitmap source = decodeSampled(background, width, height);
+        Bitmap scaled = cropToSurface(source, width, height);
+        source.recycle();
+
+        /* Same swatches the watch picks for an imported photo. */
+        Palette palette = Palette.from(scaled).generate();
+        ThemeBundle bundle = new ThemeBundle(
+                palette.getLightVibrantColor(Color.WHITE),
+                palette.getVibrantColor(Color.BLUE),
+                palette.getDarkMutedColor(Color.BLACK),
+                digitStyle);
+        bundle.putLayer(ThemeContract.LAYER_BACKGROUND, encode(scaled));
+
+        Bitmap gray = toGray(scaled);
+        bundle.putLayer(ThemeContract.LAYER_AMBIENT, encode(gray));
+        gray.recycle();
+        scaled.recycle();
+
+        return bundle;
+    }
+
+    /**
+     * Decodes at the smallest power-of-two sample size that still covers the surface.
+     */
+    private Bitmap decodeSampled(Uri uri, int width, int height) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream in = mContentResolver.openInputStream(uri);
+        try {
+            BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+
+        in = mContentResolver.openInputStream(uri);
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(in, null, options);
+            if (bitmap == null) {
+                throw new IOException("Could not decode " + uri);
+            }
+            return bitmap;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Centre-crops the source to the surface aspect ratio and scales it to the surface size.
+     */
+    private static Bitmap cropToSurface(Bitmap source, int width, int height) {
+        float scale = Math.max((float) width / source.getWidth(), (float) height / source.getHeight());
+        int cropWidth = Math.round(width / scale);
+        int cropHeight = Math.round(height / scale);
+        int left = (source.getWidth() - cropWidth) / 2;
+        int top = (source.getHeight() - cropHeight) / 2;
+
+        Bitmap scaled = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(scaled);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        canvas.drawBitmap(source, new Rect(left, top, left + cropWidth, top + cropHeight),
+                new Rect(0, 0, width, height), paint);
+        return scaled;
+    }
+
+    private static Bitmap toGray(Bitmap source) {
+        Bitmap gray = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(gray);
+        Paint grayPaint = new Paint();
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        grayPaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+        canvas.drawBitmap(source, 0, 0, grayPaint);
+        return gray;
+    }
+
+    private static byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,30 @@
+package com.somo.face.bezierlerpface;
+
+import android.graphics.Point;
+import android.os.ParcelFileDescriptor;
+
+import java.io.IOException;
+
+/**
+ * Carries theme bundles and photos to the watch. All calls block, so call them off the main
+ * thread.
+ */
+interface ThemeTransport {
+
+    /**
+     * Returns the surface size last reported by the paired watch, or null if it hasn't
+     * reported one yet.
+     */
+    Point getWatchSurfaceSize() throws IOException;
+
+    /**
+     * Sends the bundle. Layers the watch already holds, by content hash, are not transferred.
+     */
+    void push(ThemeBundle bundle) throws IOException;
+
+    /**
+     * Sends a photo at its original size. The watch crops and scales it to its own surface, so
+     * it can cut it again if the surface changes.
+     */
+    void pushPhoto(ParcelFileDescriptor photo) throws IOException;
+}
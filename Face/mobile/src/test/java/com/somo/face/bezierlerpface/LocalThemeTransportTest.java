@@ -0,0 +1,44 @@
+package com.somo.face.bezierlerpface;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that layers the watch already holds are never sent again.
+ */
+public class LocalThemeTransportTest {
+
+    private static ThemeBundle bundle(byte[] background, byte[] ambient) {
+        ThemeBundle bundle = new ThemeBundle(0xFFFFFFFF, 0xFF0000FF, 0xFF000000,
+                ThemeContract.DIGIT_STYLE_STROKE);
+        bundle.putLayer(ThemeContract.LAYER_BACKGROUND, background);
+        bundle.putLayer(ThemeContract.LAYER_AMBIENT, ambient);
+        return bundle;
+    }
+
+    @Test
+    public void repush_transfersNoLayers() throws Exception {
+        LocalThemeTransport transport = new LocalThemeTransport(null);
+        transport.push(bundle(new byte[] {1, 2, 3}, new byte[] {4, 5, 6}));
+        assertEquals(2, transport.getTransferredCount());
+
+        transport.push(bundle(new byte[] {1, 2, 3}, new byte[] {4, 5, 6}));
+        assertEquals(2, transport.getTransferredCount());
+    }
+
+    @Test
+    public void changedLayer_transfersOnlyThatLayer() throws Exception {
+        LocalThemeTransport transport = new LocalThemeTransport(null);
+        transport.push(bundle(new byte[] {1, 2, 3}, new byte[] {4, 5, 6}));
+        transport.push(bundle(new byte[] {7, 8, 9}, new byte[] {4, 5, 6}));
+        assertEquals(3, transport.getTransferredCount());
+    }
+
+    @Test
+    public void sharedLayer_transfersOnce() throws Exception {
+        LocalThemeTransport transport = new LocalThemeTransport(null);
+        transport.push(bundle(new byte[] {1, 2, 3}, new byte[] {1, 2, 3}));
+        assertEquals(1, transport.getTransferredCount());
+    }
+}
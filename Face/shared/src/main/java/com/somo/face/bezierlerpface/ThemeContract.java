@@ -0,0 +1,52 @@
+package com.somo.face.bezierlerpface;
+
+/**
+ * Data Layer paths and keys used by both ends of the theme sync. Lives in the shared source
+ * directory that the mobile and wear modules both compile, so the two can't drift apart.
+ */
+final class ThemeContract {
+
+    /** Data item holding the current theme bundle, written by the phone. */
+    static final String PATH_THEME = "/theme";
+
+    /** Data item holding the watch's surface size, written by the watch. */
+    static final String PATH_SURFACE = "/surface";
+
+    /** Data item holding a user photo, imported as the background on the watch. */
+    static final String PATH_PHOTO = "/photo";
+
+    static final String KEY_HAND_COLOUR = "hand_colour";
+    static final String KEY_HIGHLIGHT_COLOUR = "highlight_colour";
+    static final String KEY_SHADOW_COLOUR = "shadow_colour";
+    static final String KEY_DIGIT_STYLE = "digit_style";
+
+    /** Nested map of layer role to the content hash of that layer. */
+    static final String KEY_LAYERS = "layers";
+
+    /** Nested map of content hash to the asset holding those bytes. */
+    static final String KEY_ASSETS = "assets";
+
+    static final String KEY_WIDTH = "width";
+    static final String KEY_HEIGHT = "height";
+
+    /** Content hashes of the layers the watch already stores, published alongside its size. */
+    static final String KEY_HELD_HASHES = "held_hashes";
+
+    /** Asset holding the photo as chosen on the phone, at its original size. */
+    static final String KEY_PHOTO = "photo";
+
+    /**
+     * When the phone sent the item. Items with identical content don't reach the watch again,
+     * so this makes a repeated send still arrive.
+     */
+    static final String KEY_SENT_AT = "sent_at";
+
+    static final String LAYER_BACKGROUND = "background";
+    static final String LAYER_AMBIENT = "ambient";
+
+    static final String DIGIT_STYLE_STROKE = "stroke";
+    static final String DIGIT_STYLE_FILL = "fill";
+
+    private ThemeContract() {
+    }
+}
@@ -0,0 +1,159 @@
+package com.somo.face.bezierlerpface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.util.Random;
+
+/**
+ * Drifting bokeh particles drawn over the interactive background. Particles live in parallel
+ * primitive arrays allocated once, so simulating and drawing a frame allocates nothing.
+ *
+ * The simulation advances in fixed steps regardless of how often frames arrive. How many
+ * particles are drawn, and how often the face should redraw for them, is governed by the
+ * measured frame time: when frames run over {@link #FRAME_BUDGET_NANOS} particles are shed
+ * first, then the frame interval is stretched; both recover once frames are cheap again.
+ */
+class BokehLayer {
+
+    static final int MAX_PARTICLES = 24;
+    private static final int MIN_PARTICLES = 4;
+
+    /* Simulation runs at 30Hz; a late frame catches up by at most a few steps. */
+    private static final long STEP_NANOS = 1000000000L / 30;
+    private static final float STEP_SECONDS = STEP_NANOS / 1e9f;
+    private static final int MAX_STEPS_PER_FRAME = 4;
+
+    static final long MIN_FRAME_INTERVAL_MS = 33;
+    private static final long MAX_FRAME_INTERVAL_MS = 4 * MIN_FRAME_INTERVAL_MS;
+
+    /* Whole-face draw time the layer may run at full strength under. */
+    private static final long FRAME_BUDGET_NANOS = 8000000L;
+    /* Frames to wait after an adjustment so the average reflects it. */
+    private static final int SETTLE_FRAMES = 15;
+
+    private final float[] mX = new float[MAX_PARTICLES];
+    private final float[] mY = new float[MAX_PARTICLES];
+    private final float[] mVelocityX = new float[MAX_PARTICLES];
+    private final float[] mVelocityY = new float[MAX_PARTICLES];
+    private final float[] mRadius = new float[MAX_PARTICLES];
+    private final float[] mAlpha = new float[MAX_PARTICLES];
+    private final byte[] mSprite = new byte[MAX_PARTICLES];
+
+    private final Random mRandom = new Random();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mDestination = new RectF();
+
+    private int mWidth;
+    private int mHeight;
+    private int mCount = MAX_PARTICLES;
+    private long mFrameIntervalMs = MIN_FRAME_INTERVAL_MS;
+
+    private long mLastStepAt;
+    private long mAverageFrameNanos;
+    private int mFramesSinceAdjust;
+
+    /**
+     * Scatters the particles over a new surface.
+     */
+    void onSurfaceChanged(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        float maxSpeed = width * 0.03f;
+        for (int i = 0; i < MAX_PARTICLES; i++) {
+            mX[i] = mRandom.nextFloat() * width;
+            mY[i] = mRandom.nextFloat() * height;
+            mVelocityX[i] = (mRandom.nextFloat() * 2 - 1) * maxSpeed;
+            mVelocityY[i] = (mRandom.nextFloat() * 2 - 1) * maxSpeed;
+            mRadius[i] = width * (0.03f + mRandom.nextFloat() * 0.08f);
+            mAlpha[i] = 0.2f + mRandom.nextFloat() * 0.4f;
+            mSprite[i] = (byte) mRandom.nextInt(3);
+        }
+        mLastStepAt = 0;
+    }
+
+    /**
+     * Forgets the last step time, so the next frame after a pause doesn't try to catch up.
+     */
+    void pause() {
+        mLastStepAt = 0;
+    }
+
+    /**
+     * How often the face should redraw while the layer is running.
+     */
+    long getFrameIntervalMs() {
+        return mFrameIntervalMs;
+    }
+
+    /**
+     * Steps the simulation up to {@code nowNanos} and draws the live particles.
+     */
+    void draw(Canvas canvas, Bitmap[] sprites, long nowNanos) {
+        if (mLastStepAt == 0) {
+            mLastStepAt = nowNanos;
+        }
+        int steps = (int) Math.min((nowNanos - mLastStepAt) / STEP_NANOS, MAX_STEPS_PER_FRAME);
+        for (int s = 0; s < steps; s++) {
+            step();
+        }
+        if (steps == MAX_STEPS_PER_FRAME) {
+            mLastStepAt = nowNanos;
+        } else {
+            mLastStepAt += steps * STEP_NANOS;
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            float r = mRadius[i];
+            mDestination.set(mX[i] - r, mY[i] - r, mX[i] + r, mY[i] + r);
+            mPaint.setAlpha((int) (mAlpha[i] * 255));
+            canvas.drawBitmap(sprites[mSprite[i] % sprites.length], null, mDestination, mPaint);
+        }
+    }
+
+    /**
+     * Feeds back the whole face's draw time so the layer can stay within budget.
+     */
+    void onFrameDrawn(long drawTimeNanos) {
+        mAverageFrameNanos = (mAverageFrameNanos * 7 + drawTimeNanos) / 8;
+        if (++mFramesSinceAdjust < SETTLE_FRAMES) {
+            return;
+        }
+        if (mAverageFrameNanos > FRAME_BUDGET_NANOS) {
+            if (mCount > MIN_PARTICLES) {
+                mCount = Math.max(MIN_PARTICLES, mCount * 3 / 4);
+            } else {
+                mFrameIntervalMs = Math.min(MAX_FRAME_INTERVAL_MS, mFrameIntervalMs * 2);
+            }
+            mFramesSinceAdjust = 0;
+        } else if (mAverageFrameNanos < FRAME_BUDGET_NANOS / 2) {
+            if (mFrameIntervalMs > MIN_FRAME_INTERVAL_MS) {
+                mFrameIntervalMs /= 2;
+            } else if (mCount < MAX_PARTICLES) {
+                mCount++;
+            }
+            mFramesSinceAdjust = 0;
+        }
+    }
+
+    /* Moves every particle, including ones not drawn, so the set stays spread out. */
+    private void step() {
+        for (int i = 0; i < MAX_PARTICLES; i++) {
+            float r = mRadius[i];
+            mX[i] = wrap(mX[i] + mVelocityX[i] * STEP_SECONDS, -r, mWidth + r);
+            mY[i] = wrap(mY[i] + mVelocityY[i] * STEP_SECONDS, -r, mHeight + r);
+        }
+    }
+
+    private static float wrap(float value, float min, float max) {
+        if (value < min) {
+            return value + (max - min);
+        }
+        if (value > max) {
+            return value - (max - min);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,76 @@
+package com.somo.face.bezierlerpface;
+
+/**
+ * Decides whether a digit change morphs or snaps straight to the new digit. Morphs invalidate
+ * the face on every animator frame, so they are only worth running when someone is looking at
+ * an interactive face and the battery can afford it.
+ */
+class DigitAnimationPolicy {
+
+    static final int SKIP_FIRST_FRAME = 0;
+    static final int SKIP_AMBIENT = 1;
+    static final int SKIP_CONCURRENCY = 2;
+    static final int SKIP_POWER_SAVE = 3;
+
+    /* Returned by decide() when the morph should run. */
+    static final int RUN = -1;
+
+    /*
+     * Enough for both seconds digits and both minute digits, which all change together at every
+     * x9:59. Only on the hour do the hour digits join in, and those snap.
+     */
+    private static final int MAX_CONCURRENT_MORPHS = 4;
+
+    private boolean mAmbient;
+    private boolean mPowerSaveMode;
+    private boolean mBatteryLow;
+    private int mRunningMorphs;
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+    }
+
+    void setPowerSaveMode(boolean powerSaveMode) {
+        mPowerSaveMode = powerSaveMode;
+    }
+
+    void setBatteryLow(boolean batteryLow) {
+        mBatteryLow = batteryLow;
+    }
+
+    /**
+     * Returns {@link #RUN}, or the SKIP_ reason the digit should snap instead.
+     *
+     * @param firstFrame whether the digit has never been drawn before
+     */
+    int decide(boolean firstFrame) {
+        if (firstFrame) {
+            return SKIP_FIRST_FRAME;
+        }
+        if (mAmbient) {
+            return SKIP_AMBIENT;
+        }
+        if (mPowerSaveMode) {
+            return SKIP_POWER_SAVE;
+        }
+        if (mRunningMorphs >= MAX_CONCURRENT_MORPHS) {
+            return SKIP_CONCURRENCY;
+        }
+        return RUN;
+    }
+
+    /**
+     * Scales a morph's duration to the current power budget.
+     */
+    long morphDuration(long duration) {
+        return mBatteryLow ? duration / 2 : duration;
+    }
+
+    void onMorphStarted() {
+        mRunningMorphs++;
+    }
+
+    void onMorphEnded() {
+        mRunningMorphs--;
+    }
+}
@@ -0,0 +1,715 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.view.View;
+
+import com.github.adnansm.timelytextview.TimelyView;
+import com.nineoldandroids.animation.Animator;
+import com.nineoldandroids.animation.AnimatorListenerAdapter;
+import com.nineoldandroids.animation.ValueAnimator;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws the face. Owns all bitmaps, paints and digit views so the same drawing code can be
+ * driven by the {@link McFaceService} engine and by the preview in
+ * {@link WatchFaceConfigActivity}.
+ */
+class FaceRenderer {
+
+    /**
+     * Receives redraw requests from the renderer.
+     */
+    interface Callback {
+        void invalidate();
+
+        /**
+         * Called on every frame of a running digit animation.
+         */
+        void invalidateForAnimation();
+
+        /**
+         * Called when a digit snaps instead of morphing.
+         *
+         * @param reason one of the DigitAnimationPolicy SKIP_ constants
+         */
+        void onAnimationSkipped(int reason);
+
+        /**
+         * Called once, on the first frame drawn with baked layers.
+         *
+         * @param sinceCreatedMs time since the renderer was created
+         * @param fromCache whether the layers were read back from disk rather than built
+         */
+        void onFirstFrame(long sinceCreatedMs, boolean fromCache);
+    }
+
+    private static class NumberView {
+        private final TimelyView timelyView;
+        private final int width;
+        private final int height;
+        private Integer number = null;
+        private com.nineoldandroids.animation.ObjectAnimator morph;
+
+        public NumberView(Context context, int width, int height, int colour, float strokePx,
+                          Paint.Style style) {
+            timelyView = new TimelyView(context);
+
+            Paint textPaint = new Paint();
+            textPaint.setAntiAlias(true);
+            textPaint.setColor(colour);
+            textPaint.setStrokeWidth(strokePx);
+            textPaint.setStyle(style);
+            try {
+                Field paintField = TimelyView.class.getDeclaredField("mPaint");
+                paintField.setAccessible(true);//Very important, this allows the setting to work.
+                paintField.set(timelyView, textPaint);
+            } catch (NoSuchFieldException e) {
+                throw new RuntimeException(e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+
+            // Measure exactly for now, adjust this if you want wrap content
+            int widthSpec = View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY);
+            int heightSpec = View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY);
+            timelyView.measure(widthSpec, heightSpec);
+
+            this.width = timelyView.getMeasuredWidth();
+            this.height = timelyView.getMeasuredHeight();
+            timelyView.layout(0, 0, this.width, this.height);
+        }
+
+        public void draw(final Callback callback, final DigitAnimationPolicy policy, int number,
+                         Canvas canvas, int centerX, int centerY) {
+            if (this.number == null || this.number != number) {
+                boolean firstFrame = this.number == null;
+                int start = firstFrame ? 0 : this.number;
+                int end = number;
+                this.number = number;
+                endMorph();
+                com.nineoldandroids.animation.ObjectAnimator anim = timelyView.animate(start, end);
+                int decision = policy.decide(firstFrame);
+                if (decision != DigitAnimationPolicy.RUN) {
+                    /* Jumps to the final shape without scheduling any animator frames. */
+                    anim.end();
+                    callback.onAnimationSkipped(decision);
+                } else {
+                    anim.setDuration(policy.morphDuration(anim.getDuration()));
+                    anim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                        @Override
+                        public void onAnimationUpdate(ValueAnimator animation) {
+                            callback.invalidateForAnimation();
+                        }
+                    });
+                    anim.addListener(new AnimatorListenerAdapter() {
+                        @Override
+                        public void onAnimationEnd(Animator animation) {
+                            policy.onMorphEnded();
+                            morph = null;
+                        }
+                    });
+                    policy.onMorphStarted();
+                    morph = anim;
+                    anim.start();
+                    callback.invalidate();
+                }
+            }
+
+            //Translate the canvas so the view is drawn at the proper coordinates
+            canvas.save();
+            canvas.translate(centerX - (width / 2), centerY - (height / 2));
+            timelyView.draw(canvas);
+            canvas.restore();
+        }
+
+        /**
+         * Returns how far the running morph has got, or -1 if the digit is at rest.
+         */
+        public float morphPhase() {
+            return morph != null ? morph.getAnimatedFraction() : -1f;
+        }
+
+        /**
+         * Finishes a running morph immediately, leaving the final digit showing.
+         */
+        public void endMorph() {
+            if (morph != null) {
+                morph.end();
+            }
+        }
+    }
+
+    private static final float HOUR_STROKE_WIDTH = 5f;
+    private static final float MINUTE_STROKE_WIDTH = 3f;
+    private static final float SECOND_TICK_STROKE_WIDTH = 2f;
+
+    private static final int SHADOW_RADIUS = 6;
+
+    static final int LUMP_COLOUR = 0xFFC53C91;
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final Rect mPeekCardBounds = new Rect();
+    private final Rect mTextBounds = new Rect();
+    private final RenderPrepThread mRenderPrep;
+    private final DigitAnimationPolicy mAnimationPolicy = new DigitAnimationPolicy();
+    private final BokehLayer mBokeh = new BokehLayer();
+    private final RingRenderer mRing = new RingRenderer(1f, false);
+    private final long mCreatedAt = SystemClock.elapsedRealtime();
+    private boolean mFirstFrameReported;
+
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+    private boolean mBurnInProtection;
+    private boolean mMuteMode;
+    private boolean mPowerSaveMode;
+    private boolean mBokehEnabled;
+
+    private int mWidth;
+    private int mHeight;
+    private float mCenterX;
+    private float mCenterY;
+    private float mSecondHandLength;
+    private float sMinuteHandLength;
+    private float sHourHandLength;
+    /* Colors for all hands (hour, minute, seconds, ticks) based on photo loaded. */
+    private int mWatchHandColor;
+    private int mWatchHandHighlightColor;
+    private int mWatchHandShadowColor;
+    private Paint mHourPaint;
+    private Paint mMinutePaint;
+    private Paint mSecondPaint;
+    private Paint mTickAndCirclePaint;
+    private Paint mBackgroundPaint;
+    private Paint mPinkRingLumpPaint;
+    /* Surface-sized backgrounds synced from the phone; they replace the cosmos when set. */
+    private File mThemeBackground;
+    private File mThemeAmbientBackground;
+    private Paint.Style mDigitStyle = Paint.Style.STROKE;
+    /* Whether the colours came from a phone theme; otherwise they are extracted from the background. */
+    private boolean mThemed;
+    private int mLayerGeneration;
+
+    private NumberView handMinute10s;
+    private NumberView handMinute1s;
+    private NumberView handSeconds10s;
+    private NumberView handSeconds1s;
+    private NumberView handHours10s;
+    private NumberView handHours1s;
+
+    private String complicationText0;
+    private String complicationText1;
+    private RectF complication0;
+    private RectF complication1;
+
+    /**
+     * Safe to call off the main thread; everything that touches views is deferred to
+     * {@link #onSurfaceChanged(int, int)}. Bitmaps are decoded and baked on a
+     * {@link RenderPrepThread}, and the face is drawn without them until they are ready.
+     */
+    FaceRenderer(Context context, final Callback callback) {
+        mContext = context;
+        mCallback = callback;
+        mRenderPrep = new RenderPrepThread(context, new RenderPrepThread.Listener() {
+            @Override
+            public void onLayersPublished() {
+                callback.invalidate();
+            }
+
+            @Override
+            public void onPaletteExtracted(PaletteExtractor.Colours colours) {
+                /* A theme may have been applied while extraction was running. */
+                if (mThemed) {
+                    return;
+                }
+                mWatchHandColor = colours.hand;
+                mWatchHandHighlightColor = colours.highlight;
+                mWatchHandShadowColor = colours.shadow;
+                updateWatchHandStyle();
+                callback.invalidate();
+            }
+        });
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(Color.BLACK);
+        mPinkRingLumpPaint = new Paint();
+        mPinkRingLumpPaint.setAntiAlias(true);
+        mPinkRingLumpPaint.setColor(LUMP_COLOUR);
+
+        /* Set defaults for colors */
+        mWatchHandColor = Color.WHITE;
+        mWatchHandHighlightColor = Color.BLUE;
+        mWatchHandShadowColor = Color.BLACK;
+
+        mHourPaint = new Paint();
+        mHourPaint.setColor(mWatchHandColor);
+        mHourPaint.setStrokeWidth(HOUR_STROKE_WIDTH);
+        mHourPaint.setAntiAlias(true);
+        mHourPaint.setStrokeCap(Paint.Cap.ROUND);
+        mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+
+        mMinutePaint = new Paint();
+        mMinutePaint.setColor(mWatchHandColor);
+        mMinutePaint.setStrokeWidth(MINUTE_STROKE_WIDTH);
+        mMinutePaint.setAntiAlias(true);
+        mMinutePaint.setStrokeCap(Paint.Cap.ROUND);
+        mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+
+        mSecondPaint = new Paint();
+        mSecondPaint.setColor(mWatchHandHighlightColor);
+        mSecondPaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
+        mSecondPaint.setAntiAlias(true);
+        mSecondPaint.setStrokeCap(Paint.Cap.ROUND);
+        mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+
+        mTickAndCirclePaint = new Paint();
+        mTickAndCirclePaint.setColor(mWatchHandColor);
+        mTickAndCirclePaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
+        mTickAndCirclePaint.setAntiAlias(true);
+        mTickAndCirclePaint.setStyle(Paint.Style.STROKE);
+        mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+        mTickAndCirclePaint.setTextSize(20);
+
+    }
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+        mBokeh.pause();
+        mAnimationPolicy.setAmbient(ambient);
+        if (ambient && handMinute10s != null) {
+            /* Don't let a morph keep the face awake once it has gone ambient. */
+            handMinute10s.endMorph();
+            handMinute1s.endMorph();
+            handSeconds10s.endMorph();
+            handSeconds1s.endMorph();
+            handHours10s.endMorph();
+            handHours1s.endMorph();
+        }
+        updateWatchHandStyle();
+    }
+
+    void setPowerSaveMode(boolean powerSaveMode) {
+        mPowerSaveMode = powerSaveMode;
+        mAnimationPolicy.setPowerSaveMode(powerSaveMode);
+    }
+
+    /**
+     * Turns the drifting bokeh layer on or off. It only runs while interactive and out of power
+     * save mode; see {@link #isBokehAnimating()}.
+     */
+    void setBokehEnabled(boolean enabled) {
+        mBokehEnabled = enabled;
+        mBokeh.pause();
+        requestBokehSprites();
+    }
+
+    boolean isBokehAnimating() {
+        return mBokehEnabled && !mAmbient && !mPowerSaveMode;
+    }
+
+    /**
+     * How often to redraw while the bokeh layer is animating, as governed by the frame budget.
+     */
+    long getBokehFrameIntervalMs() {
+        return mBokeh.getFrameIntervalMs();
+    }
+
+    /**
+     * Reports how long the last frame took, so the bokeh layer can stay within budget.
+     */
+    void onFrameDrawn(long drawTimeNanos) {
+        if (isBokehAnimating()) {
+            mBokeh.onFrameDrawn(drawTimeNanos);
+        }
+    }
+
+    private void requestBokehSprites() {
+        if (mBokehEnabled && mWidth > 0) {
+            mRenderPrep.requestBokehSprites(mWidth / 4);
+        }
+    }
+
+    void setBatteryLow(boolean batteryLow) {
+        mAnimationPolicy.setBatteryLow(batteryLow);
+    }
+
+    void setLowBitAmbient(boolean lowBitAmbient) {
+        if (mLowBitAmbient != lowBitAmbient) {
+            mLowBitAmbient = lowBitAmbient;
+            requestStaticLayers();
+        }
+    }
+
+    void setBurnInProtection(boolean burnInProtection) {
+        if (mBurnInProtection != burnInProtection) {
+            mBurnInProtection = burnInProtection;
+            requestStaticLayers();
+        }
+    }
+
+    /**
+     * Stops the render-prep thread. The renderer can't be used afterwards.
+     */
+    void release() {
+        mRenderPrep.quit();
+    }
+
+    /**
+     * Dims the hands in mute mode. Returns whether the mode actually changed.
+     */
+    boolean setMuteMode(boolean inMuteMode) {
+        if (mMuteMode == inMuteMode) {
+            return false;
+        }
+        mMuteMode = inMuteMode;
+        mHourPaint.setAlpha(inMuteMode ? 100 : 255);
+        mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
+        mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
+        return true;
+    }
+
+    void setPeekCardBounds(Rect rect) {
+        mPeekCardBounds.set(rect);
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+    }
+
+    /**
+     * Applies a theme synced from the phone or an imported photo, or restores the built-in look
+     * if it is null.
+     */
+    void applyTheme(ThemeStore.Theme theme) {
+        /* Photos get their hand colours from palette extraction like the built-in background. */
+        mThemed = theme != null && !theme.adaptiveColours;
+        if (mThemed) {
+            mWatchHandColor = theme.handColour;
+            mWatchHandHighlightColor = theme.highlightColour;
+            mWatchHandShadowColor = theme.shadowColour;
+        } else {
+            mWatchHandColor = Color.WHITE;
+            mWatchHandHighlightColor = Color.BLUE;
+            mWatchHandShadowColor = Color.BLACK;
+        }
+        if (theme == null) {
+            mDigitStyle = Paint.Style.STROKE;
+            mThemeBackground = null;
+            mThemeAmbientBackground = null;
+        } else {
+            mDigitStyle = ThemeContract.DIGIT_STYLE_FILL.equals(theme.digitStyle)
+                    ? Paint.Style.FILL : Paint.Style.STROKE;
+            mThemeBackground = theme.background;
+            mThemeAmbientBackground = theme.ambientBackground;
+        }
+        updateWatchHandStyle();
+        if (mWidth > 0) {
+            createNumberViews();
+        }
+        requestStaticLayers();
+    }
+
+    /**
+     * Hands the current surface, theme and ambient capabilities to the render-prep thread.
+     * Frames keep using the previous layers until the new ones are published.
+     */
+    private void requestStaticLayers() {
+        if (mWidth == 0) {
+            return;
+        }
+        /*
+         * Only bake a gray version of the image if it will look nice on the device in
+         * ambient mode. That means we don't want devices that support burn-in
+         * protection (slight movements in pixels, not great for images going all the way to
+         * edges) and low ambient mode (degrades image quality).
+         */
+        mRenderPrep.requestStaticLayers(new RenderPrepThread.LayerSpec(++mLayerGeneration,
+                mWidth, mHeight, !mBurnInProtection && !mLowBitAmbient,
+                mThemeBackground, mThemeAmbientBackground, !mThemed));
+    }
+
+    /**
+     * Returns a cheap hash of everything that decides what {@link #draw(Canvas, long)} would
+     * produce at {@code now}: time at the resolution the face currently shows it, digit morph
+     * phases, complications, modes, the peek card and the current layers and colours. Equal
+     * fingerprints mean the frame would come out the same.
+     */
+    long frameFingerprint(long now) {
+        long h;
+        if (isBokehAnimating()) {
+            /*
+             * Bokeh frames are scheduled on multiples of the frame interval in UTC. A zone offset
+             * is rarely a multiple of it, so quantising in local time could put a late tick and
+             * the next on-time one in the same quantum and skip a frame the particles need.
+             */
+            h = now / mBokeh.getFrameIntervalMs();
+        } else {
+            long quantumMs = mAmbient ? TimeUnit.MINUTES.toMillis(1) : TimeUnit.SECONDS.toMillis(1);
+            h = (now + mCalendar.getTimeZone().getOffset(now)) / quantumMs;
+        }
+        h = 31 * h + (mAmbient ? 1 : 0);
+        h = 31 * h + (mLowBitAmbient ? 1 : 0);
+        h = 31 * h + (mMuteMode ? 1 : 0);
+        h = 31 * h + (isBokehAnimating() ? 1 : 0);
+        h = 31 * h + mPeekCardBounds.hashCode();
+        h = 31 * h + (complicationText0 != null ? complicationText0.hashCode() : 0);
+        h = 31 * h + (complicationText1 != null ? complicationText1.hashCode() : 0);
+        h = 31 * h + mWidth;
+        h = 31 * h + mHeight;
+        h = 31 * h + mWatchHandColor;
+        h = 31 * h + mWatchHandHighlightColor;
+        h = 31 * h + mWatchHandShadowColor;
+        h = 31 * h + mDigitStyle.ordinal();
+        /* Published layers are new objects, so identity is enough to see them change. */
+        h = 31 * h + System.identityHashCode(mRenderPrep.getStaticLayers());
+        if (handMinute10s != null) {
+            h = 31 * h + Float.floatToIntBits(handMinute10s.morphPhase());
+            h = 31 * h + Float.floatToIntBits(handMinute1s.morphPhase());
+            h = 31 * h + Float.floatToIntBits(handSeconds10s.morphPhase());
+            h = 31 * h + Float.floatToIntBits(handSeconds1s.morphPhase());
+            h = 31 * h + Float.floatToIntBits(handHours10s.morphPhase());
+            h = 31 * h + Float.floatToIntBits(handHours1s.morphPhase());
+        }
+        return h;
+    }
+
+    void setComplicationText(int complicationId, String text) {
+        if (complicationId == 0) {
+            complicationText0 = text;
+        } else {
+            complicationText1 = text;
+        }
+    }
+
+    private void updateWatchHandStyle() {
+        if (mAmbient) {
+            mHourPaint.setColor(Color.WHITE);
+            mMinutePaint.setColor(Color.WHITE);
+            mSecondPaint.setColor(Color.WHITE);
+            mTickAndCirclePaint.setColor(Color.WHITE);
+
+            mHourPaint.setAntiAlias(false);
+            mMinutePaint.setAntiAlias(false);
+            mSecondPaint.setAntiAlias(false);
+            mTickAndCirclePaint.setAntiAlias(false);
+
+            mHourPaint.clearShadowLayer();
+            mMinutePaint.clearShadowLayer();
+            mSecondPaint.clearShadowLayer();
+            mTickAndCirclePaint.clearShadowLayer();
+
+        } else {
+            mHourPaint.setColor(mWatchHandColor);
+            mMinutePaint.setColor(mWatchHandColor);
+            mSecondPaint.setColor(mWatchHandHighlightColor);
+            mTickAndCirclePaint.setColor(mWatchHandColor);
+
+            mHourPaint.setAntiAlias(true);
+            mMinutePaint.setAntiAlias(true);
+            mSecondPaint.setAntiAlias(true);
+            mTickAndCirclePaint.setAntiAlias(true);
+
+            mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+            mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+            mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+            mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
+        }
+    }
+
+    void onSurfaceChanged(int width, int height) {
+        /*
+         * Find the coordinates of the center point on the screen, and ignore the window
+         * insets, so that, on round watches with a "chin", the watch face is centered on the
+         * entire screen, not just the usable portion.
+         */
+        mCenterX = width / 2f;
+        mCenterY = height / 2f;
+
+        /*
+         * Calculate lengths of different hands based on watch screen size.
+         */
+        mSecondHandLength = (float) (mCenterX * 0.875);
+        sMinuteHandLength = (float) (mCenterX * 0.75);
+        sHourHandLength = (float) (mCenterX * 0.5);
+
+        mWidth = width;
+        mHeight = height;
+        requestStaticLayers();
+        mBokeh.onSurfaceChanged(width, height);
+        mRing.onSurfaceChanged(width, height);
+        requestBokehSprites();
+
+        createNumberViews();
+
+
+        //Define complication zones
+        int complicationSize = (int) (mCenterX / 5);
+        //Amount to offset from the centre - diag bottom left / top right. 1/(X *... X=1 would put the circle at the watch edge, 2 half way between centre and edge
+        float offsetFraction = (float) (1 / (2.5 * Math.sqrt(2.0)));
+
+        complication0 = new RectF(
+                mCenterX * (1 - offsetFraction) - complicationSize,
+                mCenterY * (1 + offsetFraction) - complicationSize,
+                mCenterX * (1 - offsetFraction) + complicationSize,
+                mCenterY * (1 + offsetFraction) + complicationSize
+        );
+
+        complication1 = new RectF(
+                mCenterX * (1 + offsetFraction) - complicationSize,
+                mCenterY * (1 - offsetFraction) - complicationSize,
+                mCenterX * (1 + offsetFraction) + complicationSize,
+                mCenterY * (1 - offsetFraction) + complicationSize
+        );
+    }
+
+    private void createNumberViews() {
+        int charWidth = Math.round((float) mWidth * 0.03f);
+        int charHeight = Math.round(charWidth * 1.9f);
+        int strokeWidth = Math.round((float) mWidth * 0.005f);
+        handMinute10s = new NumberView(mContext, charWidth, charHeight, 0xFFCCCCCC, strokeWidth, mDigitStyle);
+        handMinute1s = new NumberView(mContext, charWidth, charHeight, 0xFFCCCCCC, strokeWidth, mDigitStyle);
+        handSeconds10s = new NumberView(mContext, charWidth, charHeight, 0xFFCCCCCC, strokeWidth, mDigitStyle);
+        handSeconds1s = new NumberView(mContext, charWidth, charHeight, 0xFFCCCCCC, strokeWidth, mDigitStyle);
+        handHours10s = new NumberView(mContext, charWidth, charHeight, 0xFFFFFFFF, strokeWidth, mDigitStyle);
+        handHours1s = new NumberView(mContext, charWidth, charHeight, 0xFFFFFFFF, strokeWidth, mDigitStyle);
+    }
+
+    void draw(Canvas canvas, long now) {
+        mCalendar.setTimeInMillis(now);
+        /*
+         * These calculations reflect the rotation in degrees per unit of time, e.g.,
+         * 360 / 60 = 6 and 360 / 12 = 30.
+         */
+        final float seconds =
+                (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
+        final float secondsRotation = seconds * 6f;
+
+        final int minutes = mCalendar.get(Calendar.MINUTE);
+        final float minutesRotation = (float) minutes * 6f;
+
+        final int hours12 = mCalendar.get(Calendar.HOUR);
+        final float hourHandOffset = (float) minutes / 2f;
+        final float hoursRotation = ((float) hours12 * 30) + hourHandOffset;
+
+        float circleRadius = mCenterX / 10;
+
+        /*
+         * Layers come from the render-prep thread. Until the first set for the current surface
+         * is published, draw on plain black rather than block this thread.
+         */
+        RenderPrepThread.StaticLayers layers = mRenderPrep.getStaticLayers();
+        if (layers != null && (layers.spec.width != mWidth || layers.spec.height != mHeight)) {
+            layers = null;
+        }
+        if (layers != null && !mFirstFrameReported) {
+            mFirstFrameReported = true;
+            mCallback.onFirstFrame(SystemClock.elapsedRealtime() - mCreatedAt, layers.fromCache);
+        }
+
+        if (mAmbient) {
+            int minuteOfDay = hours12 * 60 + minutes;
+            RenderPrepThread.MinuteLayer minuteLayer = mRenderPrep.acquireMinuteLayer();
+            boolean drawLumps = true;
+            if (layers != null && minuteLayer != null
+                    && minuteLayer.matches(layers.spec.generation, minuteOfDay, mPeekCardBounds)) {
+                /* Background, peek card backdrop and lumps are all baked for this minute. */
+                canvas.drawBitmap(minuteLayer.bitmap, 0, 0, null);
+                drawLumps = false;
+            } else {
+                if (layers != null && layers.ambientBackground != null) {
+                    canvas.drawBitmap(layers.ambientBackground, 0, 0, mBackgroundPaint);
+                } else {
+                    canvas.drawColor(Color.BLACK);
+                }
+
+                /* Draw rectangle behind peek card in ambient mode to improve readability. */
+                canvas.drawRect(mPeekCardBounds, mBackgroundPaint);
+            }
+            mRenderPrep.releaseMinuteLayer();
+
+            drawHand(canvas, minutesRotation, circleRadius, drawLumps, handMinute10s, handMinute1s, minutes);
+            drawHand(canvas, hoursRotation, circleRadius, drawLumps, handHours10s, handHours1s, hours12);
+
+            if (layers != null) {
+                /* Bake the next minute now, so its frame is a single blit. */
+                int nextMinutes = (minutes + 1) % 60;
+                int nextHours12 = nextMinutes == 0 ? (hours12 + 1) % 12 : hours12;
+                mRenderPrep.requestMinuteLayer(nextHours12 * 60 + nextMinutes,
+                        nextHours12 * 30 + nextMinutes / 2f, nextMinutes * 6f, mPeekCardBounds);
+            }
+
+        } else {
+            if (layers != null) {
+                canvas.drawBitmap(layers.background, 0, 0, mBackgroundPaint);
+
+                Bitmap[] bokehSprites = mRenderPrep.getBokehSprites();
+                if (isBokehAnimating() && bokehSprites != null) {
+                    mBokeh.draw(canvas, bokehSprites, SystemClock.elapsedRealtimeNanos());
+                }
+            } else {
+                canvas.drawColor(Color.BLACK);
+            }
+
+            /* The ring needs no bitmaps, so it is there from the first frame. */
+            mRing.drawRing(canvas, true);
+
+            drawHand(canvas, secondsRotation, circleRadius, true, handSeconds10s, handSeconds1s, (int) seconds);
+            drawHand(canvas, minutesRotation, circleRadius, true, handMinute10s, handMinute1s, minutes);
+            drawHand(canvas, hoursRotation, circleRadius, true, handHours10s, handHours1s, hours12);
+        }
+
+        drawComplications(canvas);
+    }
+
+    /**
+     * Draws one hand: a lump on the ring at the given rotation, with its two digits upright on
+     * top of it. In interactive mode the ring's sheen is laid over both.
+     */
+    private void drawHand(Canvas canvas, float rotation, float circleRadius, boolean drawLump,
+                          NumberView tens, NumberView ones, int value) {
+        double radians = Math.toRadians(rotation);
+        float lumpX = (float) (mCenterX + Math.sin(radians) * mCenterX * 0.9);
+        float lumpY = (float) (mCenterY - Math.cos(radians) * mCenterX * 0.9);
+
+        if (drawLump) {
+            canvas.drawCircle(lumpX, lumpY, circleRadius, mPinkRingLumpPaint);
+        }
+
+        canvas.save();
+        canvas.translate(lumpX - mCenterX, lumpY - mCenterY);
+        tens.draw(mCallback, mAnimationPolicy, value / 10, canvas, (int) (mCenterX * 0.97), (int) mCenterY);
+        ones.draw(mCallback, mAnimationPolicy, value % 10, canvas, (int) (mCenterX * 1.03), (int) mCenterY);
+        canvas.restore();
+
+        if (drawLump && !mAmbient) {
+            mRing.drawSheen(canvas, lumpX, lumpY, circleRadius);
+        }
+    }
+
+    private void drawComplications(Canvas canvas) {
+        mTickAndCirclePaint.setTextSize(mCenterX / 10);
+        if (complicationText0 != null ) {
+            canvas.drawOval(complication0, mPinkRingLumpPaint);
+            mTickAndCirclePaint.getTextBounds(complicationText0, 0, complicationText0.length(), mTextBounds);
+            canvas.drawText(complicationText0, complication0.centerX() - mTextBounds.width() / 2, complication0.centerY() + mTextBounds.height() / 2, mTickAndCirclePaint);
+        }
+        if (complicationText1 != null ) {
+            canvas.drawOval(complication1, mPinkRingLumpPaint);
+            mTickAndCirclePaint.getTextBounds(complicationText1, 0, complicationText1.length(), mTextBounds);
+            canvas.drawText(complicationText1, complication1.centerX() - mTextBounds.width() / 2, complication1.centerY() + mTextBounds.height() / 2, mTickAndCirclePaint);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.somo.face.bezierlerpface;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records what the face costs to run: frames per mode with their draw times, handler wakeups,
+ * animator-driven invalidations, redundant frames skipped, complication updates per slot and
+ * time spent visible. Events go into a fixed-size ring buffer
+ * allocated up front, so recording only allocates on the rare call that has to persist.
+ *
+ * New events are appended to {@code files/telemetry/telemetry.csv} every few minutes, or sooner
+ * when the ring is filling up, rotating to {@code telemetry.1.csv} and {@code telemetry.2.csv}
+ * once the file grows. Each append ends with the running totals as {@code total_*} rows, so they
+ * survive the process; events overwritten before they could be written are counted in
+ * {@code total_dropped}. A report can be
+ * pulled from a connected watch with
+ * {@code adb shell dumpsys activity service com.somo.face.bezierlerpface/.McFaceService csv}
+ * (or {@code json}).
+ */
+class FaceTelemetry {
+
+    private static final String TAG = "FaceTelemetry";
+
+    static final int EVENT_FRAME_INTERACTIVE = 0;
+    static final int EVENT_FRAME_AMBIENT = 1;
+    static final int EVENT_FRAME_LOW_BIT = 2;
+    static final int EVENT_HANDLER_WAKEUP = 3;
+    static final int EVENT_ANIMATOR_INVALIDATE = 4;
+    static final int EVENT_VISIBLE = 5;
+    static final int EVENT_INVISIBLE = 6;
+    /* Value is the DigitAnimationPolicy SKIP_ reason. */
+    static final int EVENT_ANIMATION_SKIPPED = 7;
+    /* Value is the time from engine creation to the first frame with layers, in ms. */
+    static final int EVENT_FIRST_FRAME_WARM = 8;
+    static final int EVENT_FIRST_FRAME_COLD = 9;
+    /* An invalidate dropped because the frame would have matched the last one drawn. */
+    static final int EVENT_FRAME_SKIPPED = 10;
+    /* Value is the complication slot id. */
+    static final int EVENT_COMPLICATION_UPDATE = 11;
+
+    private static final String[] EVENT_NAMES = {
+            "frame_interactive",
+            "frame_ambient",
+            "frame_low_bit",
+            "handler_wakeup",
+            "animator_invalidate",
+            "visible",
+            "invisible",
+            "animation_skipped",
+            "first_frame_warm",
+            "first_frame_cold",
+            "frame_skipped",
+            "complication_update",
+    };
+
+    private static final int CAPACITY = 4096;
+    /* Unwritten events that trigger a persist; interactive mode records dozens a second. */
+    private static final int PERSIST_THRESHOLD = CAPACITY * 3 / 4;
+
+    /*
+     * Complication updates are counted per slot. The support library doesn't say which provider
+     * sent an update, but each slot has one provider at a time, so a chatty slot points at it.
+     */
+    private static final int MAX_COMPLICATION_SLOTS = 8;
+
+    private static final long PERSIST_INTERVAL_MS = 10 * 60 * 1000;
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+    private static final int MAX_FILES = 3;
+
+    /* Ring buffer; event n lives at index n % CAPACITY. */
+    private final long[] mTimes = new long[CAPACITY];
+    private final byte[] mTypes = new byte[CAPACITY];
+    private final int[] mValues = new int[CAPACITY];
+    private long mRecorded;
+    private long mPersisted;
+    /* Events overwritten in the ring before they were persisted. */
+    private long mDropped;
+
+    /* Totals since the service started, kept even once events fall out of the ring. */
+    private final long[] mCounts = new long[EVENT_NAMES.length];
+    private final long[] mDrawTimeUs = new long[EVENT_NAMES.length];
+    private final long[] mComplicationUpdates = new long[MAX_COMPLICATION_SLOTS];
+    private final long mStartedAt = SystemClock.elapsedRealtime();
+    private long mVisibleMs;
+    private long mInvisibleMs;
+    private boolean mVisible;
+    private long mVisibilityChangedAt = SystemClock.elapsedRealtime();
+    private long mLastPersistAt = SystemClock.elapsedRealtime();
+
+    private final File mDir;
+
+    FaceTelemetry(File filesDir) {
+        mDir = new File(filesDir, "telemetry");
+    }
+
+    synchronized void record(int type, int value) {
+        int index = (int) (mRecorded % CAPACITY);
+        mTimes[index] = System.currentTimeMillis();
+        mTypes[index] = (byte) type;
+        mValues[index] = value;
+        mRecorded++;
+        mCounts[type]++;
+        if (mRecorded - mPersisted >= PERSIST_THRESHOLD) {
+            persist();
+        }
+    }
+
+    /**
+     * Records a drawn frame of the given type along with how long it took.
+     */
+    synchronized void recordFrame(int type, long drawTimeNanos) {
+        int drawTimeUs = (int) (drawTimeNanos / 1000);
+        record(type, drawTimeUs);
+        mDrawTimeUs[type] += drawTimeUs;
+    }
+
+    synchronized void recordComplicationUpdate(int slotId) {
+        record(EVENT_COMPLICATION_UPDATE, slotId);
+        if (slotId >= 0 && slotId < MAX_COMPLICATION_SLOTS) {
+            mComplicationUpdates[slotId]++;
+        }
+    }
+
+    synchronized void setVisible(boolean visible) {
+        if (visible == mVisible) {
+            return;
+        }
+        accumulateVisibility(SystemClock.elapsedRealtime());
+        mVisible = visible;
+        record(visible ? EVENT_VISIBLE : EVENT_INVISIBLE, 0);
+    }
+
+    /**
+     * Appends the events recorded since the last persist if the interval has passed. Cheap to
+     * call often; the write itself happens off the calling thread.
+     */
+    void maybePersist() {
+        if (SystemClock.elapsedRealtime() - mLastPersistAt >= PERSIST_INTERVAL_MS) {
+            persist();
+        }
+    }
+
+    void persist() {
+        final StringBuilder csv = new StringBuilder();
+        synchronized (this) {
+            if (mRecorded == mPersisted) {
+                return;
+            }
+            mLastPersistAt = SystemClock.elapsedRealtime();
+            long first = Math.max(mPersisted, mRecorded - CAPACITY);
+            mDropped += first - mPersisted;
+            for (long n = first; n < mRecorded; n++) {
+                appendCsvRow(csv, (int) (n % CAPACITY));
+            }
+            mPersisted = mRecorded;
+            appendTotals(csv, System.currentTimeMillis() + ",total_");
+        }
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    append(csv);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not persist telemetry", e);
+                }
+            }
+        });
+    }
+
+    synchronized void dumpCsv(PrintWriter writer) {
+        writer.println("# summary");
+        writer.println("counter,value");
+        StringBuilder totals = new StringBuilder();
+        appendTotals(totals, "");
+        writer.print(totals);
+        writer.println("# events");
+        writer.println("time_ms,event,value");
+        StringBuilder row = new StringBuilder();
+        for (long n = Math.max(0, mRecorded - CAPACITY); n < mRecorded; n++) {
+            row.setLength(0);
+            appendCsvRow(row, (int) (n % CAPACITY));
+            writer.print(row);
+        }
+    }
+
+    synchronized void dumpJson(PrintWriter writer) {
+        writer.println("{");
+        writer.println("  \"summary\": {");
+        for (int type = 0; type < EVENT_NAMES.length; type++) {
+            writer.println("    \"" + EVENT_NAMES[type] + "\": " + mCounts[type] + ",");
+        }
+        writer.println("    \"draw_us_interactive\": " + mDrawTimeUs[EVENT_FRAME_INTERACTIVE] + ",");
+        writer.println("    \"draw_us_ambient\": " + mDrawTimeUs[EVENT_FRAME_AMBIENT] + ",");
+        writer.println("    \"draw_us_low_bit\": " + mDrawTimeUs[EVENT_FRAME_LOW_BIT] + ",");
+        writer.println("    \"visible_ms\": " + visibleMs() + ",");
+        writer.println("    \"invisible_ms\": " + invisibleMs() + ",");
+        writer.println("    \"dropped\": " + mDropped + ",");
+        writer.println("    \"complications\": [");
+        boolean first = true;
+        for (int slot = 0; slot < MAX_COMPLICATION_SLOTS; slot++) {
+            if (mComplicationUpdates[slot] > 0) {
+                writer.print(first ? "" : ",\n");
+                writer.print("      {\"slot\": " + slot
+                        + ", \"updates\": " + mComplicationUpdates[slot]
+                        + ", \"per_hour\": " + complicationUpdatesPerHour(slot) + "}");
+                first = false;
+            }
+        }
+        if (!first) {
+            writer.println();
+        }
+        writer.println("    ]");
+        writer.println("  },");
+        writer.println("  \"events\": [");
+        for (long n = Math.max(0, mRecorded - CAPACITY); n < mRecorded; n++) {
+            int index = (int) (n % CAPACITY);
+            writer.print("    {\"time_ms\": " + mTimes[index]
+                    + ", \"event\": \"" + EVENT_NAMES[mTypes[index]]
+                    + "\", \"value\": " + mValues[index] + "}");
+            writer.println(n + 1 < mRecorded ? "," : "");
+        }
+        writer.println("  ]");
+        writer.println("}");
+    }
+
+    /*
+     * One "name,value" row per total, each after {@code rowPrefix}: nothing for the dump, a
+     * timestamp and "total_" when persisted alongside the events.
+     */
+    private void appendTotals(StringBuilder out, String rowPrefix) {
+        for (int type = 0; type < EVENT_NAMES.length; type++) {
+            appendTotal(out, rowPrefix, EVENT_NAMES[type], mCounts[type]);
+        }
+        appendTotal(out, rowPrefix, "draw_us_interactive", mDrawTimeUs[EVENT_FRAME_INTERACTIVE]);
+        appendTotal(out, rowPrefix, "draw_us_ambient", mDrawTimeUs[EVENT_FRAME_AMBIENT]);
+        appendTotal(out, rowPrefix, "draw_us_low_bit", mDrawTimeUs[EVENT_FRAME_LOW_BIT]);
+        appendTotal(out, rowPrefix, "visible_ms", visibleMs());
+        appendTotal(out, rowPrefix, "invisible_ms", invisibleMs());
+        appendTotal(out, rowPrefix, "dropped", mDropped);
+        for (int slot = 0; slot < MAX_COMPLICATION_SLOTS; slot++) {
+            if (mComplicationUpdates[slot] > 0) {
+                appendTotal(out, rowPrefix, "complication_" + slot + "_updates",
+                        mComplicationUpdates[slot]);
+                appendTotal(out, rowPrefix, "complication_" + slot + "_per_hour",
+                        complicationUpdatesPerHour(slot));
+            }
+        }
+    }
+
+    private static void appendTotal(StringBuilder out, String rowPrefix, String name, long value) {
+        out.append(rowPrefix).append(name).append(',').append(value).append('\n');
+    }
+
+    private void appendCsvRow(StringBuilder out, int index) {
+        out.append(mTimes[index]).append(',')
+                .append(EVENT_NAMES[mTypes[index]]).append(',')
+                .append(mValues[index]).append('\n');
+    }
+
+    private void accumulateVisibility(long now) {
+        if (mVisible) {
+            mVisibleMs += now - mVisibilityChangedAt;
+        } else {
+            mInvisibleMs += now - mVisibilityChangedAt;
+        }
+        mVisibilityChangedAt = now;
+    }
+
+    private long complicationUpdatesPerHour(int slot) {
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - mStartedAt);
+        return mComplicationUpdates[slot] * TimeUnit.HOURS.toMillis(1) / elapsedMs;
+    }
+
+    private long visibleMs() {
+        accumulateVisibility(SystemClock.elapsedRealtime());
+        return mVisibleMs;
+    }
+
+    private long invisibleMs() {
+        accumulateVisibility(SystemClock.elapsedRealtime());
+        return mInvisibleMs;
+    }
+
+    /* Runs on the AsyncTask serial executor, so appends and rotations never overlap. */
+    private void append(CharSequence csv) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Could not create " + mDir);
+        }
+        File current = fileAt(0);
+        if (current.length() > MAX_FILE_BYTES) {
+            rotate();
+        }
+        boolean newFile = !current.exists();
+        Writer writer = new FileWriter(current, true);
+        try {
+            if (newFile) {
+                writer.append("time_ms,event,value\n");
+            }
+            writer.append(csv);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void rotate() {
+        fileAt(MAX_FILES - 1).delete();
+        for (int i = MAX_FILES - 2; i >= 0; i--) {
+            fileAt(i).renameTo(fileAt(i + 1));
+        }
+    }
+
+    private File fileAt(int generation) {
+        return new File(mDir, generation == 0 ? "telemetry.csv" : "telemetry." + generation + ".csv");
+    }
+}
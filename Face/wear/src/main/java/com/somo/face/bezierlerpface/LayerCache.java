@@ -0,0 +1,243 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps baked static layers on disk so a restarted engine can skip decoding and compositing.
+ * Layers are stored as raw ARGB_8888 pixels behind a small header and read back through a
+ * memory-mapped file, which costs little more than a copy.
+ *
+ * Entries are keyed by surface size, ambient style and the theme layers they were baked from.
+ * Theme layers are named by content hash, so a new theme or photo gets a new entry; built-in
+ * resources only change with the app, so everything lives under a directory per installed
+ * build, named by version code and install time, and other builds' entries are deleted. The
+ * install time changes with every update, so a rebuilt APK that kept its version code still
+ * starts from an empty cache.
+ *
+ * The face and the config preview each have a render-prep thread with its own instance over the
+ * same directory, so reads and writes go through one lock shared by the process.
+ */
+class LayerCache {
+
+    private static final String TAG = "LayerCache";
+
+    private static final int MAGIC = 0x4C415952;
+    /* Bump when the set or order of stored layers changes. */
+    private static final int FORMAT_VERSION = 2;
+    /* Magic, format version, width, height, layer count. */
+    private static final int HEADER_BYTES = 5 * 4;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /* Enough for the face and the config preview without thrashing. */
+    private static final int MAX_ENTRIES = 2;
+
+    private static final Object sLock = new Object();
+
+    private final File mRoot;
+    private final File mDir;
+
+    LayerCache(Context context) {
+        mRoot = new File(context.getCacheDir(), "layers");
+        mDir = new File(mRoot, BuildConfig.VERSION_CODE + "-" + lastUpdateTime(context));
+    }
+
+    private static long lastUpdateTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            /* Can't happen for our own package. */
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the layers stored for the spec, or null if there are none or they can't be read.
+     */
+    RenderPrepThread.StaticLayers load(RenderPrepThread.LayerSpec spec) {
+        synchronized (sLock) {
+            return loadLocked(spec);
+        }
+    }
+
+    private RenderPrepThread.StaticLayers loadLocked(RenderPrepThread.LayerSpec spec) {
+        File file = fileFor(spec);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                long layerBytes = (long) spec.width * spec.height * BYTES_PER_PIXEL;
+                int count = layerCount(spec);
+                if (channel.size() != HEADER_BYTES + count * layerBytes) {
+                    throw new IOException("Unexpected size " + channel.size());
+                }
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (map.getInt() != MAGIC || map.getInt() != FORMAT_VERSION
+                        || map.getInt() != spec.width || map.getInt() != spec.height
+                        || map.getInt() != count) {
+                    throw new IOException("Header mismatch");
+                }
+
+                /* Each copy advances the buffer past the layer it read. */
+                Bitmap background = readLayer(map, spec);
+                Bitmap ambientBackground = spec.grayAmbient ? readLayer(map, spec) : null;
+
+                file.setLastModified(System.currentTimeMillis());
+                return new RenderPrepThread.StaticLayers(spec, background, ambientBackground, true);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + file.getName(), e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes freshly baked layers. The entry only appears once fully written.
+     */
+    void store(RenderPrepThread.StaticLayers layers) {
+        synchronized (sLock) {
+            storeLocked(layers);
+        }
+    }
+
+    private void storeLocked(RenderPrepThread.StaticLayers layers) {
+        RenderPrepThread.LayerSpec spec = layers.spec;
+        File file = fileFor(spec);
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        try {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IOException("Could not create " + mDir);
+            }
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = out.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION)
+                        .putInt(spec.width).putInt(spec.height).putInt(layerCount(spec));
+                header.flip();
+                writeFully(channel, header);
+
+                ByteBuffer pixels = ByteBuffer.allocateDirect(spec.width * spec.height * BYTES_PER_PIXEL);
+                writeLayer(channel, pixels, layers.background);
+                if (spec.grayAmbient) {
+                    writeLayer(channel, pixels, layers.ambientBackground);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not store " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache layers", e);
+            tmp.delete();
+            return;
+        }
+        prune();
+    }
+
+    private File fileFor(RenderPrepThread.LayerSpec spec) {
+        return new File(mDir, spec.width + "x" + spec.height
+                + (spec.grayAmbient ? "-gray-" : "-black-")
+                + nameOf(spec.themeBackground) + "-" + nameOf(spec.themeAmbientBackground));
+    }
+
+    /**
+     * Names the source of a layer built from {@code themeLayer}: its content hash, or the
+     * installed build for the built-in artwork.
+     */
+    String sourceKey(File themeLayer) {
+        return themeLayer == null ? "builtin-" + mDir.getName() : themeLayer.getName();
+    }
+
+    private static String nameOf(File themeLayer) {
+        return themeLayer == null ? "builtin" : themeLayer.getName();
+    }
+
+    private static int layerCount(RenderPrepThread.LayerSpec spec) {
+        return spec.grayAmbient ? 2 : 1;
+    }
+
+    private static Bitmap readLayer(ByteBuffer map, RenderPrepThread.LayerSpec spec) {
+        Bitmap layer = Bitmap.createBitmap(spec.width, spec.height, Bitmap.Config.ARGB_8888);
+        layer.copyPixelsFromBuffer(map);
+        return layer;
+    }
+
+    private static void writeLayer(FileChannel channel, ByteBuffer pixels, Bitmap layer)
+            throws IOException {
+        pixels.clear();
+        layer.copyPixelsToBuffer(pixels);
+        pixels.flip();
+        writeFully(channel, pixels);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Deletes entries from other builds and all but the most recently used of this one. Files
+     * still being written are left alone and don't count as entries.
+     */
+    private void prune() {
+        File[] versions = mRoot.listFiles();
+        if (versions != null) {
+            for (File version : versions) {
+                if (!version.equals(mDir)) {
+                    deleteDir(version);
+                }
+            }
+        }
+        File[] entries = mDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return !name.endsWith(".tmp");
+            }
+        });
+        if (entries == null || entries.length <= MAX_ENTRIES) {
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(rhs.lastModified(), lhs.lastModified());
+            }
+        });
+        for (int i = MAX_ENTRIES; i < entries.length; i++) {
+            entries[i].delete();
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+}
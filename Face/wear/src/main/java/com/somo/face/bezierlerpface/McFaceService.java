@@ -20,40 +20,30 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.SharedPreferences;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
-import android.graphics.RectF;
+import android.os.AsyncTask;
+import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.PowerManager;
 import android.support.wearable.complications.ComplicationData;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.SurfaceHolder;
-import android.view.View;
-
-import com.github.adnansm.timelytextview.TimelyView;
-import com.nineoldandroids.animation.ValueAnimator;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.lang.reflect.Field;
-import java.util.Calendar;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
-//import android.support.v7.graphics.Palette;
-
 /**
  * Analog watch face with a ticking second hand. In ambient mode, the second hand isn't
  * shown. On devices with low-bit ambient mode, the hands are drawn without anti-aliasing in ambient
@@ -75,66 +65,6 @@ public class McFaceService extends CanvasWatchFaceService {
         }
     }
 
-    private static class NumberView {
-        private final TimelyView timelyView;
-        private final int width;
-        private final int height;
-        private Integer number = null;
-
-        public NumberView(Context context, int width, int height, int colour, float strokePx) {
-            timelyView = new TimelyView(context);
-
-            Paint textPaint = new Paint();
-            textPaint.setAntiAlias(true);
-            textPaint.setColor(colour);
-            textPaint.setStrokeWidth(strokePx);
-            textPaint.setStyle(Paint.Style.STROKE);
-            try {
-                Field paintField = TimelyView.class.getDeclaredField("mPaint");
-                paintField.setAccessible(true);//Very important, this allows the setting to work.
-                paintField.set(timelyView, textPaint);
-            } catch (NoSuchFieldException e) {
-                throw new RuntimeException(e);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
-            }
-
-            // Measure exactly for now, adjust this if you want wrap content
-            int widthSpec = View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY);
-            int heightSpec = View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY);
-            timelyView.measure(widthSpec, heightSpec);
-
-            this.width = timelyView.getMeasuredWidth();
-            this.height = timelyView.getMeasuredHeight();
-            timelyView.layout(0, 0, this.width, this.height);
-        }
-
-        public void draw(final CanvasWatchFaceService.Engine engine, int number, Canvas canvas, int centerX, int centerY) {
-            if (this.number == null || this.number != number) {
-                int start = this.number == null ? 0 : this.number;
-                int end = number;
-                this.number = number;
-                com.nineoldandroids.animation.ObjectAnimator anim = timelyView.animate(start, end);
-                anim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                    @Override
-                    public void onAnimationUpdate(ValueAnimator animation) {
-                        engine.invalidate();
-                    }
-                });
-                anim.start();
-                engine.invalidate();
-            }
-
-            /**/
-
-            //Translate the canvas so the view is drawn at the proper coordinates
-            canvas.save();
-            canvas.translate(centerX - (width / 2), centerY - (height / 2));
-            timelyView.draw(canvas);
-            canvas.restore();
-        }
-    }
-
     private final static String TAG = McFaceService.class.getSimpleName();
 
     /*
@@ -148,16 +78,63 @@ public class McFaceService extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Handler message id for applying complication updates collected over
+     * {@link #COMPLICATION_COALESCE_MS}.
+     */
+    private static final int MSG_REFRESH_COMPLICATIONS = 1;
+
+    /*
+     * Window in which complication updates, from any slot, are gathered into one refresh and
+     * one redraw. Short enough that new values still look immediate.
+     */
+    private static final long COMPLICATION_COALESCE_MS = 200;
+
+    /*
+     * Battery level at or below which digit morphs are shortened.
+     */
+    private static final int LOW_BATTERY_PERCENT = 15;
+
     public static final Dial[] COMPLICATION_DIALS = {
             new Dial(0, new int[]{ComplicationData.TYPE_SHORT_TEXT}, "Primary", R.drawable.complications_primary_dial),
             new Dial(1, new int[]{ComplicationData.TYPE_SHORT_TEXT}, "Secondary", R.drawable.complications_secondary_dial)
     };
 
+    private FaceTelemetry mTelemetry;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mTelemetry = new FaceTelemetry(getFilesDir());
+    }
+
+    @Override
+    public void onDestroy() {
+        mTelemetry.persist();
+        super.onDestroy();
+    }
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    /**
+     * Dumps the telemetry report when asked for "csv" or "json"; otherwise leaves the dump to
+     * the default service dump.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        String format = args != null && args.length > 0 ? args[0] : null;
+        if ("csv".equals(format)) {
+            mTelemetry.dumpCsv(writer);
+        } else if ("json".equals(format)) {
+            mTelemetry.dumpJson(writer);
+        } else {
+            super.dump(fd, writer, args);
+        }
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<McFaceService.Engine> mWeakReference;
 
@@ -173,69 +150,58 @@ public class McFaceService extends CanvasWatchFaceService {
                     case MSG_UPDATE_TIME:
                         engine.handleUpdateTimeMessage();
                         break;
+                    case MSG_REFRESH_COMPLICATIONS:
+                        engine.refreshComplications();
+                        break;
                 }
             }
         }
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine {
-        private static final float HOUR_STROKE_WIDTH = 5f;
-        private static final float MINUTE_STROKE_WIDTH = 3f;
-        private static final float SECOND_TICK_STROKE_WIDTH = 2f;
-
-        private static final float CENTER_GAP_AND_CIRCLE_RADIUS = 4f;
-
-        private static final int SHADOW_RADIUS = 6;
-        private final Rect mPeekCardBounds = new Rect();
+    private class Engine extends CanvasWatchFaceService.Engine implements FaceRenderer.Callback {
         /* Handler to update the time once a second in interactive mode. */
         private final Handler mUpdateTimeHandler = new EngineHandler(this);
-        private Calendar mCalendar;
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mRenderer.setTimeZone(TimeZone.getDefault());
                 invalidate();
             }
         };
+        private final BroadcastReceiver mPowerReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                updatePowerBudget(intent);
+            }
+        };
+        private final SharedPreferences.OnSharedPreferenceChangeListener mThemeListener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+                        if (ThemeStore.KEY_GENERATION.equals(key)) {
+                            mRenderer.applyTheme(mThemeStore.load());
+                            invalidate();
+                        } else if (ThemeStore.KEY_ANIMATED_BOKEH.equals(key)) {
+                            mRenderer.setBokehEnabled(mThemeStore.isAnimatedBokeh());
+                            /* Pick up the new update rate straight away. */
+                            updateTimer();
+                            invalidate();
+                        }
+                    }
+                };
         private boolean mRegisteredTimeZoneReceiver = false;
-        private boolean mMuteMode;
-        private float mCenterX;
-        private float mCenterY;
-        private float mSecondHandLength;
-        private float sMinuteHandLength;
-        private float sHourHandLength;
-        /* Colors for all hands (hour, minute, seconds, ticks) based on photo loaded. */
-        private int mWatchHandColor;
-        private int mWatchHandHighlightColor;
-        private int mWatchHandShadowColor;
-        private Paint mHourPaint;
-        private Paint mMinutePaint;
-        private Paint mSecondPaint;
-        private Paint mTickAndCirclePaint;
-        private Paint mBackgroundPaint;
-        private Paint mPinkRingLumpPaint;
-        private Paint xferPaint;
-        private Bitmap mBackgroundBitmap;
-        private Bitmap mGrayBackgroundBitmap;
-        private Bitmap mGradientBitmap;
-        private Bitmap mCosmosBitmap;
-        private Bitmap mBokehBitmap;
         private boolean mAmbient;
         private boolean mLowBitAmbient;
-        private boolean mBurnInProtection;
-
-        private NumberView handMinute10s;
-        private NumberView handMinute1s;
-        private NumberView handSeconds10s;
-        private NumberView handSeconds1s;
-        private NumberView handHours10s;
-        private NumberView handHours1s;
+        /* What the last drawn frame showed; see invalidate(). */
+        private long mPresentedFingerprint;
+        /* Set when the surface itself needs repainting whatever the fingerprint says. */
+        private boolean mForceRedraw = true;
 
-        private String complicationText0;
-        private String complicationText1;
-        private RectF complication0;
-        private RectF complication1;
+        private FaceRenderer mRenderer;
+        private ThemeStore mThemeStore;
 
+        /* Latest data per slot not yet handed to the renderer. */
+        private final SparseArray<ComplicationData> mPendingComplications = new SparseArray<>();
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -254,74 +220,23 @@ public class McFaceService extends CanvasWatchFaceService {
             }
             setActiveComplications(ids);
 
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(Color.BLACK);
-            mPinkRingLumpPaint = new Paint();
-            mPinkRingLumpPaint.setAntiAlias(true);
-            mPinkRingLumpPaint.setColor(0xFFC53C91);
-            mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.pink_ring);
-            mGradientBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.gradient);
-            mCosmosBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.cosmos);
-            mBokehBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.bokeh);
-
-            /* Set defaults for colors */
-            mWatchHandColor = Color.WHITE;
-            mWatchHandHighlightColor = Color.BLUE;
-            mWatchHandShadowColor = Color.BLACK;
-
-            mHourPaint = new Paint();
-            mHourPaint.setColor(mWatchHandColor);
-            mHourPaint.setStrokeWidth(HOUR_STROKE_WIDTH);
-            mHourPaint.setAntiAlias(true);
-            mHourPaint.setStrokeCap(Paint.Cap.ROUND);
-            mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-
-            mMinutePaint = new Paint();
-            mMinutePaint.setColor(mWatchHandColor);
-            mMinutePaint.setStrokeWidth(MINUTE_STROKE_WIDTH);
-            mMinutePaint.setAntiAlias(true);
-            mMinutePaint.setStrokeCap(Paint.Cap.ROUND);
-            mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-
-            mSecondPaint = new Paint();
-            mSecondPaint.setColor(mWatchHandHighlightColor);
-            mSecondPaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
-            mSecondPaint.setAntiAlias(true);
-            mSecondPaint.setStrokeCap(Paint.Cap.ROUND);
-            mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-
-            mTickAndCirclePaint = new Paint();
-            mTickAndCirclePaint.setColor(mWatchHandColor);
-            mTickAndCirclePaint.setStrokeWidth(SECOND_TICK_STROKE_WIDTH);
-            mTickAndCirclePaint.setAntiAlias(true);
-            mTickAndCirclePaint.setStyle(Paint.Style.STROKE);
-            mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-            mTickAndCirclePaint.setTextSize(20);
-
-            xferPaint = new Paint();
-            xferPaint.setColor(0xFF000000);
-            xferPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_ATOP));
-
-            /* Extract colors from background image to improve watchface style. */
-            /*Palette.from(mBackgroundBitmap).generate(new Palette.PaletteAsyncListener() {
-                @Override
-                public void onGenerated(Palette palette) {
-                    if (palette != null) {
-                        mWatchHandHighlightColor = palette.getVibrantColor(Color.BLUE);
-                        mWatchHandColor = palette.getLightVibrantColor(Color.WHITE);
-                        mWatchHandShadowColor = palette.getDarkMutedColor(Color.BLACK);
-                        updateWatchHandStyle();
-                    }
-                }
-            });*/
-
-            mCalendar = Calendar.getInstance();
+            mRenderer = new FaceRenderer(getApplicationContext(), this);
 
+            /* Pick up the theme last synced from the phone, and any that arrive later. */
+            mThemeStore = new ThemeStore(getApplicationContext());
+            mRenderer.applyTheme(mThemeStore.load());
+            mThemeStore.getPreferences().registerOnSharedPreferenceChangeListener(mThemeListener);
+            mRenderer.setBokehEnabled(mThemeStore.isAnimatedBokeh());
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeMessages(MSG_REFRESH_COMPLICATIONS);
+            mThemeStore.getPreferences().unregisterOnSharedPreferenceChangeListener(mThemeListener);
+            mRenderer.release();
+            mTelemetry.setVisible(false);
+            mTelemetry.persist();
             super.onDestroy();
         }
 
@@ -329,12 +244,14 @@ public class McFaceService extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
-            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            mRenderer.setLowBitAmbient(mLowBitAmbient);
+            mRenderer.setBurnInProtection(properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false));
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mTelemetry.maybePersist();
             invalidate();
         }
 
@@ -343,140 +260,52 @@ public class McFaceService extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             mAmbient = inAmbientMode;
 
-            updateWatchHandStyle();
+            mRenderer.setAmbient(inAmbientMode);
+            invalidate();
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
             updateTimer();
         }
 
-        private void updateWatchHandStyle() {
-            if (mAmbient) {
-                mHourPaint.setColor(Color.WHITE);
-                mMinutePaint.setColor(Color.WHITE);
-                mSecondPaint.setColor(Color.WHITE);
-                mTickAndCirclePaint.setColor(Color.WHITE);
-
-                mHourPaint.setAntiAlias(false);
-                mMinutePaint.setAntiAlias(false);
-                mSecondPaint.setAntiAlias(false);
-                mTickAndCirclePaint.setAntiAlias(false);
-
-                mHourPaint.clearShadowLayer();
-                mMinutePaint.clearShadowLayer();
-                mSecondPaint.clearShadowLayer();
-                mTickAndCirclePaint.clearShadowLayer();
-
-            } else {
-                mHourPaint.setColor(mWatchHandColor);
-                mMinutePaint.setColor(mWatchHandColor);
-                mSecondPaint.setColor(mWatchHandHighlightColor);
-                mTickAndCirclePaint.setColor(mWatchHandColor);
-
-                mHourPaint.setAntiAlias(true);
-                mMinutePaint.setAntiAlias(true);
-                mSecondPaint.setAntiAlias(true);
-                mTickAndCirclePaint.setAntiAlias(true);
-
-                mHourPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mMinutePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mSecondPaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-                mTickAndCirclePaint.setShadowLayer(SHADOW_RADIUS, 0, 0, mWatchHandShadowColor);
-            }
-        }
-
         @Override
         public void onInterruptionFilterChanged(int interruptionFilter) {
             super.onInterruptionFilterChanged(interruptionFilter);
             boolean inMuteMode = (interruptionFilter == WatchFaceService.INTERRUPTION_FILTER_NONE);
 
             /* Dim display in mute mode. */
-            if (mMuteMode != inMuteMode) {
-                mMuteMode = inMuteMode;
-                mHourPaint.setAlpha(inMuteMode ? 100 : 255);
-                mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
-                mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
+            if (mRenderer.setMuteMode(inMuteMode)) {
                 invalidate();
             }
         }
 
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            mForceRedraw = true;
             super.onSurfaceChanged(holder, format, width, height);
+            mRenderer.onSurfaceChanged(width, height);
+            invalidate();
 
-            /*
-             * Find the coordinates of the center point on the screen, and ignore the window
-             * insets, so that, on round watches with a "chin", the watch face is centered on the
-             * entire screen, not just the usable portion.
-             */
-            mCenterX = width / 2f;
-            mCenterY = height / 2f;
-
-            /*
-             * Calculate lengths of different hands based on watch screen size.
-             */
-            mSecondHandLength = (float) (mCenterX * 0.875);
-            sMinuteHandLength = (float) (mCenterX * 0.75);
-            sHourHandLength = (float) (mCenterX * 0.5);
-
-
-            /*
-             * Create a gray version of the image only if it will look nice on the device in
-             * ambient mode. That means we don't want devices that support burn-in
-             * protection (slight movements in pixels, not great for images going all the way to
-             * edges) and low ambient mode (degrades image quality).
-             *
-             * Also, if your watch face will know about all images ahead of time (users aren't
-             * selecting their own photos for the watch face), it will be more
-             * efficient to create a black/white version (png, etc.) and load that when you need it.
-             */
-            if (!mBurnInProtection && !mLowBitAmbient) {
-                initGrayBackgroundBitmap();
-            }
-
-            int charWidth = Math.round((float) width * 0.03f);
-            int charHeight = Math.round(charWidth * 1.9f);
-            int strokeWidth = Math.round((float) width * 0.005f);
-            handMinute10s = new NumberView(getApplicationContext(), charWidth, charHeight, 0xFFCCCCCC, strokeWidth);
-            handMinute1s = new NumberView(getApplicationContext(), charWidth, charHeight, 0xFFCCCCCC, strokeWidth);
-            handSeconds10s = new NumberView(getApplicationContext(), charWidth, charHeight, 0xFFCCCCCC, strokeWidth);
-            handSeconds1s = new NumberView(getApplicationContext(), charWidth, charHeight, 0xFFCCCCCC, strokeWidth);
-            handHours10s = new NumberView(getApplicationContext(), charWidth, charHeight, 0xFFFFFFFF, strokeWidth);
-            handHours1s = new NumberView(getApplicationContext(), charWidth, charHeight, 0xFFFFFFFF, strokeWidth);
-
-
-            //Define complication zones
-            int complicationSize = (int) (mCenterX / 5);
-            //Amount to offset from the centre - diag bottom left / top right. 1/(X *... X=1 would put the circle at the watch edge, 2 half way between centre and edge
-            float offsetFraction = (float) (1 / (2.5 * Math.sqrt(2.0)));
-
-            complication0 = new RectF(
-                    mCenterX * (1 - offsetFraction) - complicationSize,
-                    mCenterY * (1 + offsetFraction) - complicationSize,
-                    mCenterX * (1 - offsetFraction) + complicationSize,
-                    mCenterY * (1 + offsetFraction) + complicationSize
-            );
-
-            complication1 = new RectF(
-                    mCenterX * (1 + offsetFraction) - complicationSize,
-                    mCenterY * (1 - offsetFraction) - complicationSize,
-                    mCenterX * (1 + offsetFraction) + complicationSize,
-                    mCenterY * (1 - offsetFraction) + complicationSize
-            );
-
-        }
+            /* Let the phone scale theme backgrounds for this surface. */
+            ThemeListenerService.publishSurfaceSizeAsync(getApplicationContext(), width, height);
 
-        private void initGrayBackgroundBitmap() {
-            mGrayBackgroundBitmap = Bitmap.createBitmap(
-                    mBackgroundBitmap.getWidth(),
-                    mBackgroundBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundBitmap);
-            Paint grayPaint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundBitmap, 0, 0, grayPaint);
+            /* A photo imported for another surface is cut again from the kept original. */
+            if (mThemeStore.needsPhotoImport(width, height)) {
+                final PhotoImporter importer = new PhotoImporter(mThemeStore);
+                final Context context = getApplicationContext();
+                final int surfaceWidth = width;
+                final int surfaceHeight = height;
+                AsyncTask.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            importer.importFor(surfaceWidth, surfaceHeight);
+                            ThemeListenerService.publishSurface(context);
+                        } catch (IOException e) {
+                            Log.w(TAG, "Re-importing photo failed", e);
+                        }
+                    }
+                });
+            }
         }
 
         /**
@@ -515,155 +344,66 @@ public class McFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long drawStart = System.nanoTime();
             long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            /*
-             * These calculations reflect the rotation in degrees per unit of time, e.g.,
-             * 360 / 60 = 6 and 360 / 12 = 30.
-             */
-            final float seconds =
-                    (mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND) / 1000f);
-            final float secondsRotation = seconds * 6f;
-
-            final int minutes = mCalendar.get(Calendar.MINUTE);
-            final float minutesRotation = (float) minutes * 6f;
-
-            final int hours12 = mCalendar.get(Calendar.HOUR);
-            final float hourHandOffset = (float) minutes / 2f;
-            final float hoursRotation = ((float) hours12 * 30) + hourHandOffset;
-
-            boolean drawGradient = false;
-
-            Matrix matrixCosmos = new Matrix();
-            matrixCosmos.setScale((mCenterX * 2) / mCosmosBitmap.getWidth(), (mCenterY * 2) / mCosmosBitmap.getHeight());
-
-            Matrix matrixPinkRing = new Matrix();
-            matrixPinkRing.setScale((mCenterX * 2) / mBackgroundBitmap.getWidth(), (mCenterY * 2) / mBackgroundBitmap.getHeight());
-
-
-            if (mAmbient && (mLowBitAmbient || mBurnInProtection)) {
-                canvas.drawColor(Color.BLACK);
-            } else if (mAmbient) {
-                canvas.drawBitmap(mCosmosBitmap, matrixCosmos, mBackgroundPaint);
-                canvas.drawBitmap(mBokehBitmap, matrixCosmos, mBackgroundPaint);
-                canvas.drawBitmap(mGrayBackgroundBitmap, matrixCosmos, mBackgroundPaint);
-            } else {
-                canvas.drawBitmap(mCosmosBitmap, matrixCosmos, mBackgroundPaint);
-                canvas.drawBitmap(mBokehBitmap, matrixCosmos, mBackgroundPaint);
-
-                drawGradient = true;
-                canvas.saveLayer(null, mBackgroundPaint);
-
-                canvas.drawBitmap(mGradientBitmap, matrixPinkRing, mBackgroundPaint);
-
-                canvas.saveLayer(null, xferPaint);
-
-                canvas.drawBitmap(mBackgroundBitmap, matrixPinkRing, mBackgroundPaint);
-
-            }
-
-            /*
-             * Draw ticks. Usually you will want to bake this directly into the photo, but in
-             * cases where you want to allow users to select their own photos, this dynamically
-             * creates them on top of the photo.
-             */
-            /*float innerTickRadius = mCenterX - 10;
-            float outerTickRadius = mCenterX;
-            for (int tickIndex = 0; tickIndex < 12; tickIndex++) {
-                float tickRot = (float) (tickIndex * Math.PI * 2 / 12);
-                float innerX = (float) Math.sin(tickRot) * innerTickRadius;
-                float innerY = (float) -Math.cos(tickRot) * innerTickRadius;
-                float outerX = (float) Math.sin(tickRot) * outerTickRadius;
-                float outerY = (float) -Math.cos(tickRot) * outerTickRadius;
-                canvas.drawLine(mCenterX + innerX, mCenterY + innerY,
-                        mCenterX + outerX, mCenterY + outerY, mTickAndCirclePaint);
-            }*/
-
-            /* Draw rectangle behind peek card in ambient mode to improve readability. */
-            if (mAmbient) {
-                canvas.drawRect(mPeekCardBounds, mBackgroundPaint);
-            }
-
-            float circleRadius = mCenterX / 10;
-
-            /*
-             * Ensure the "seconds" hand is drawn only when we are in interactive mode.
-             * Otherwise, we only update the watch face once a minute.
-             */
-            if (!mAmbient) {
-                canvas.save();
-                canvas.rotate(secondsRotation, mCenterX, mCenterY);
-                canvas.translate(0, (float) (-mCenterX * 0.9));
-
-                canvas.drawCircle(mCenterX, mCenterY, circleRadius, mPinkRingLumpPaint);
-
-                canvas.rotate(-secondsRotation, mCenterX, mCenterY);
-                handSeconds10s.draw(this, (int) seconds / 10, canvas, (int) (mCenterX * 0.97), (int) mCenterY);
-                handSeconds1s.draw(this, (int) seconds % 10, canvas, (int) (mCenterX * 1.03), (int) mCenterY);
+            mRenderer.draw(canvas, now);
+            /* After drawing, which may have started or snapped digit morphs. */
+            mPresentedFingerprint = mRenderer.frameFingerprint(now);
+            mForceRedraw = false;
+            long drawTime = System.nanoTime() - drawStart;
+            mTelemetry.recordFrame(!mAmbient ? FaceTelemetry.EVENT_FRAME_INTERACTIVE
+                            : mLowBitAmbient ? FaceTelemetry.EVENT_FRAME_LOW_BIT
+                            : FaceTelemetry.EVENT_FRAME_AMBIENT,
+                    drawTime);
+            mRenderer.onFrameDrawn(drawTime);
+        }
 
-                canvas.restore();
+        /**
+         * Requests a frame only if it would differ from the one last drawn. Touches, time ticks
+         * within the same minute in ambient and handler ticks that move nothing are dropped here
+         * and counted as skipped.
+         */
+        @Override
+        public void invalidate() {
+            if (!mForceRedraw && mRenderer != null
+                    && mRenderer.frameFingerprint(System.currentTimeMillis()) == mPresentedFingerprint) {
+                mTelemetry.record(FaceTelemetry.EVENT_FRAME_SKIPPED, 0);
+                return;
             }
+            super.invalidate();
+        }
 
-            canvas.save();
-            canvas.rotate(minutesRotation, mCenterX, mCenterY);
-            canvas.translate(0, (float) (-mCenterX * 0.9));
-
-            canvas.drawCircle(mCenterX, mCenterY, circleRadius, mPinkRingLumpPaint);
-
-            canvas.rotate(-minutesRotation, mCenterX, mCenterY);
-            handMinute10s.draw(this, minutes / 10, canvas, (int) (mCenterX * 0.97), (int) mCenterY);
-            handMinute1s.draw(this, minutes % 10, canvas, (int) (mCenterX * 1.03), (int) mCenterY);
-
-            canvas.restore();
-
-            canvas.save();
-            canvas.rotate(hoursRotation, mCenterX, mCenterY);
-            canvas.translate(0, (float) (-mCenterX * 0.9));
-
-            canvas.drawCircle(mCenterX, mCenterY, circleRadius, mPinkRingLumpPaint);
-
-            canvas.rotate(-hoursRotation, mCenterX, mCenterY);
-            handHours10s.draw(this, hours12 / 10, canvas, (int) (mCenterX * 0.97), (int) mCenterY);
-            handHours1s.draw(this, hours12 % 10, canvas, (int) (mCenterX * 1.03), (int) mCenterY);
-
-            canvas.restore();
-
-
-
-            if (drawGradient) {
-                canvas.restore();
-                canvas.restore();
-            }
+        @Override
+        public void invalidateForAnimation() {
+            mTelemetry.record(FaceTelemetry.EVENT_ANIMATOR_INVALIDATE, 0);
+            invalidate();
+        }
 
-            drawComplications(canvas);
+        @Override
+        public void onAnimationSkipped(int reason) {
+            mTelemetry.record(FaceTelemetry.EVENT_ANIMATION_SKIPPED, reason);
         }
 
-        private void drawComplications(Canvas canvas) {
-            mTickAndCirclePaint.setTextSize(mCenterX / 10);
-            Rect bounds = new Rect();
-            if (complicationText0 != null ) {
-                canvas.drawOval(complication0, mPinkRingLumpPaint);
-                mTickAndCirclePaint.getTextBounds(complicationText0, 0, complicationText0.length(), bounds);
-                canvas.drawText(complicationText0, complication0.centerX() - bounds.width() / 2, complication0.centerY() + bounds.height() / 2, mTickAndCirclePaint);
-            }
-            if (complicationText1 != null ) {
-                canvas.drawOval(complication1, mPinkRingLumpPaint);
-                mTickAndCirclePaint.getTextBounds(complicationText1, 0, complicationText1.length(), bounds);
-                canvas.drawText(complicationText1, complication1.centerX() - bounds.width() / 2, complication1.centerY() + bounds.height() / 2, mTickAndCirclePaint);
-            }
+        @Override
+        public void onFirstFrame(long sinceCreatedMs, boolean fromCache) {
+            mTelemetry.record(fromCache ? FaceTelemetry.EVENT_FIRST_FRAME_WARM
+                    : FaceTelemetry.EVENT_FIRST_FRAME_COLD, (int) sinceCreatedMs);
         }
 
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
+            mTelemetry.setVisible(visible);
 
             if (visible) {
                 registerReceiver();
                 /* Update time zone in case it changed while we weren't visible. */
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mRenderer.setTimeZone(TimeZone.getDefault());
+                mForceRedraw = true;
                 invalidate();
             } else {
                 unregisterReceiver();
+                mTelemetry.maybePersist();
             }
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
@@ -673,21 +413,43 @@ public class McFaceService extends CanvasWatchFaceService {
         @Override
         public void onPeekCardPositionUpdate(Rect rect) {
             super.onPeekCardPositionUpdate(rect);
-            mPeekCardBounds.set(rect);
+            mRenderer.setPeekCardBounds(rect);
+            invalidate();
         }
 
         @Override
         public void onComplicationDataUpdate(int complicationId, ComplicationData data) {
-            Log.d(TAG, "onComplicationDataUpdate() id: " + complicationId);
-            if (data.getType() == ComplicationData.TYPE_SHORT_TEXT) {
-                if (complicationId == 0) {
-                    complicationText0 = data.getShortText().getText(getApplicationContext(), Calendar.getInstance().getTimeInMillis()).toString();
-                    Log.d(TAG, "onComplicationDataUpdate: " + complicationText0);
-                } else {
-                    complicationText1 = data.getShortText().getText(getApplicationContext(), Calendar.getInstance().getTimeInMillis()).toString();
-                    Log.d(TAG, "onComplicationDataUpdate: " + complicationText1);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "onComplicationDataUpdate() id: " + complicationId);
+            }
+            mTelemetry.recordComplicationUpdate(complicationId);
+
+            /* A burst keeps only the newest data per slot; the first update starts the window. */
+            mPendingComplications.put(complicationId, data);
+            if (!mUpdateTimeHandler.hasMessages(MSG_REFRESH_COMPLICATIONS)) {
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_REFRESH_COMPLICATIONS,
+                        COMPLICATION_COALESCE_MS);
+            }
+        }
+
+        /**
+         * Hands the complication updates gathered in the last window to the renderer and redraws
+         * once for all of them.
+         */
+        private void refreshComplications() {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < mPendingComplications.size(); i++) {
+                ComplicationData data = mPendingComplications.valueAt(i);
+                if (data.getType() == ComplicationData.TYPE_SHORT_TEXT) {
+                    String text = data.getShortText().getText(getApplicationContext(), now).toString();
+                    mRenderer.setComplicationText(mPendingComplications.keyAt(i), text);
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "onComplicationDataUpdate: " + text);
+                    }
                 }
             }
+            mPendingComplications.clear();
+            invalidate();
         }
 
         private void registerReceiver() {
@@ -697,6 +459,11 @@ public class McFaceService extends CanvasWatchFaceService {
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
             McFaceService.this.registerReceiver(mTimeZoneReceiver, filter);
+
+            IntentFilter powerFilter = new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+            powerFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
+            /* ACTION_BATTERY_CHANGED is sticky, so this also returns the current battery state. */
+            updatePowerBudget(McFaceService.this.registerReceiver(mPowerReceiver, powerFilter));
         }
 
         private void unregisterReceiver() {
@@ -705,6 +472,23 @@ public class McFaceService extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = false;
             McFaceService.this.unregisterReceiver(mTimeZoneReceiver);
+            McFaceService.this.unregisterReceiver(mPowerReceiver);
+        }
+
+        /**
+         * Feeds power save mode and battery level into the digit animation policy.
+         */
+        private void updatePowerBudget(Intent batteryChanged) {
+            PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+            mRenderer.setPowerSaveMode(powerManager.isPowerSaveMode());
+
+            if (batteryChanged != null && Intent.ACTION_BATTERY_CHANGED.equals(batteryChanged.getAction())) {
+                int level = batteryChanged.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = batteryChanged.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                int plugged = batteryChanged.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+                mRenderer.setBatteryLow(plugged == 0 && level >= 0 && scale > 0
+                        && level * 100 / scale <= LOW_BATTERY_PERCENT);
+            }
         }
 
         /**
@@ -729,11 +513,15 @@ public class McFaceService extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            mTelemetry.record(FaceTelemetry.EVENT_HANDLER_WAKEUP, 0);
+            mTelemetry.maybePersist();
             invalidate();
             if (shouldTimerBeRunning()) {
+                /* Bokeh needs a faster rate, which the renderer scales back to its frame budget. */
+                long rateMs = mRenderer.isBokehAnimating()
+                        ? mRenderer.getBokehFrameIntervalMs() : INTERACTIVE_UPDATE_RATE_MS;
                 long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                long delayMs = rateMs - (timeMs % rateMs);
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
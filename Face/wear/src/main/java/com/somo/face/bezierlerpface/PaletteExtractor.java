@@ -0,0 +1,82 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.v7.graphics.Palette;
+
+/**
+ * Derives the hand colours from a background image. Extraction runs on a small downsampled
+ * copy, and results are kept on disk keyed by where the background came from, so a background
+ * is only sampled again once it has dropped out of the last few kept. Call from a background
+ * thread.
+ */
+class PaletteExtractor {
+
+    private static final String PREFS_NAME = "palette";
+
+    /* Side of the downsampled copy; plenty for picking a handful of swatches. */
+    private static final int SAMPLE_SIZE = 48;
+
+    /* The current background and a few recent ones to switch back to. */
+    private static final int MAX_ENTRIES = 4;
+    /* Cached keys, newest first, so the oldest can be dropped. */
+    private static final String KEY_ORDER = "order";
+
+    static class Colours {
+        final int hand;
+        final int highlight;
+        final int shadow;
+
+        Colours(int hand, int highlight, int shadow) {
+            this.hand = hand;
+            this.highlight = highlight;
+            this.shadow = shadow;
+        }
+    }
+
+    private final SharedPreferences mCache;
+
+    PaletteExtractor(Context context) {
+        mCache = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the colours for a background. {@code key} names the background's source, such as
+     * the content hash of a theme layer, and must change whenever the source does.
+     */
+    Colours extract(String key, Bitmap background) {
+        String cached = mCache.getString(key, null);
+        if (cached != null) {
+            String[] parts = cached.split(",");
+            return new Colours(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]));
+        }
+
+        Bitmap sample = Bitmap.createScaledBitmap(background, SAMPLE_SIZE, SAMPLE_SIZE, true);
+        Palette palette = Palette.from(sample).generate();
+        sample.recycle();
+        Colours colours = new Colours(
+                palette.getLightVibrantColor(Color.WHITE),
+                palette.getVibrantColor(Color.BLUE),
+                palette.getDarkMutedColor(Color.BLACK));
+        SharedPreferences.Editor editor = mCache.edit();
+        editor.putString(key, colours.hand + "," + colours.highlight + "," + colours.shadow);
+        StringBuilder order = new StringBuilder(key);
+        int kept = 1;
+        for (String older : mCache.getString(KEY_ORDER, "").split(",")) {
+            if (older.isEmpty() || older.equals(key)) {
+                continue;
+            }
+            if (kept < MAX_ENTRIES) {
+                order.append(',').append(older);
+                kept++;
+            } else {
+                editor.remove(older);
+            }
+        }
+        editor.putString(KEY_ORDER, order.toString()).apply();
+        return colours;
+    }
+}
@@ -0,0 +1,185 @@
+package com.somo.face.bezierlerpface;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns a user photo into surface-sized background layers. The original is only ever read
+ * through a {@link BitmapRegionDecoder} at a reduced sample size, so a camera-sized image never
+ * has to fit in memory at once. The interactive and gray ambient layers are encoded once and
+ * kept in the {@link ThemeStore}; later engine starts decode those instead of the original.
+ *
+ * Imports are slow and must be run off the main thread.
+ */
+class PhotoImporter {
+
+    private static final int JPEG_QUALITY = 90;
+
+    private final ThemeStore mStore;
+
+    PhotoImporter(ThemeStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Keeps a newly received photo and imports it for the surface last reported by the engine.
+     */
+    void importPhoto(InputStream in) throws IOException {
+        mStore.writePhotoOriginal(in);
+        int width = mStore.getSurfaceWidth();
+        int height = mStore.getSurfaceHeight();
+        if (width > 0 && height > 0) {
+            importFor(width, height);
+        }
+    }
+
+    /**
+     * Re-imports the kept photo for a new surface size.
+     */
+    void importFor(int width, int height) throws IOException {
+        Bitmap background = decodeForSurface(mStore.getPhotoOriginal(), width, height);
+        Bitmap ambient = toGray(background);
+
+        Map<String, String> layers = new HashMap<>();
+        layers.put(ThemeContract.LAYER_BACKGROUND, storeLayer(background));
+        layers.put(ThemeContract.LAYER_AMBIENT, storeLayer(ambient));
+        background.recycle();
+        ambient.recycle();
+
+        mStore.applyPhoto(layers, width, height);
+    }
+
+    /**
+     * Decodes the centre of the photo matching the surface's aspect ratio, at exactly the
+     * surface size. The crop is chosen on the photo as it is meant to be seen, so one taken
+     * with the camera turned comes out upright.
+     */
+    private static Bitmap decodeForSurface(File photo, int width, int height) throws IOException {
+        int rotation = readRotation(photo);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(photo.getPath(), false);
+        try {
+            int storedWidth = decoder.getWidth();
+            int storedHeight = decoder.getHeight();
+            boolean sideways = rotation == 90 || rotation == 270;
+            int photoWidth = sideways ? storedHeight : storedWidth;
+            int photoHeight = sideways ? storedWidth : storedHeight;
+            Rect crop;
+            if ((long) photoWidth * height > (long) photoHeight * width) {
+                int cropWidth = (int) ((long) photoHeight * width / height);
+                int left = (photoWidth - cropWidth) / 2;
+                crop = new Rect(left, 0, left + cropWidth, photoHeight);
+            } else {
+                int cropHeight = (int) ((long) photoWidth * height / width);
+                int top = (photoHeight - cropHeight) / 2;
+                crop = new Rect(0, top, photoWidth, top + cropHeight);
+            }
+
+            /* Largest power of two that still leaves at least a surface's worth of pixels. */
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = 1;
+            while (crop.width() / (options.inSampleSize * 2) >= width
+                    && crop.height() / (options.inSampleSize * 2) >= height) {
+                options.inSampleSize *= 2;
+            }
+
+            Bitmap sampled = decoder.decodeRegion(
+                    toStored(crop, rotation, storedWidth, storedHeight), options);
+            if (sampled == null) {
+                throw new IOException("Could not decode " + photo);
+            }
+            if (rotation != 0) {
+                Matrix matrix = new Matrix();
+                matrix.setRotate(rotation);
+                Bitmap rotated = Bitmap.createBitmap(sampled, 0, 0,
+                        sampled.getWidth(), sampled.getHeight(), matrix, true);
+                sampled.recycle();
+                sampled = rotated;
+            }
+            if (sampled.getWidth() == width && sampled.getHeight() == height) {
+                return sampled;
+            }
+            Bitmap scaled = Bitmap.createScaledBitmap(sampled, width, height, true);
+            sampled.recycle();
+            return scaled;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /* Clockwise degrees the stored pixels must be turned to be seen upright. */
+    private static int readRotation(File photo) {
+        try {
+            switch (new ExifInterface(photo.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            /* No readable EXIF; take the pixels as they are. */
+            return 0;
+        }
+    }
+
+    /*
+     * Maps a rect on the upright photo back onto the stored pixels, which are the upright
+     * photo turned back by {@code rotation}.
+     */
+    private static Rect toStored(Rect upright, int rotation, int storedWidth, int storedHeight) {
+        switch (rotation) {
+            case 90:
+                return new Rect(upright.top, storedHeight - upright.right,
+                        upright.bottom, storedHeight - upright.left);
+            case 180:
+                return new Rect(storedWidth - upright.right, storedHeight - upright.bottom,
+                        storedWidth - upright.left, storedHeight - upright.top);
+            case 270:
+                return new Rect(storedWidth - upright.bottom, upright.left,
+                        storedWidth - upright.top, upright.right);
+            default:
+                return upright;
+        }
+    }
+
+    private static Bitmap toGray(Bitmap source) {
+        Bitmap gray = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        Paint grayPaint = new Paint();
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        grayPaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+        new Canvas(gray).drawBitmap(source, 0, 0, grayPaint);
+        return gray;
+    }
+
+    private String storeLayer(Bitmap layer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        layer.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        byte[] bytes = out.toByteArray();
+        String hash = ThemeStore.hash(bytes);
+        if (!mStore.hasLayer(hash)) {
+            mStore.writeLayer(hash, new ByteArrayInputStream(bytes));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,426 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Builds the face's layers on a background thread so bitmap decoding, scaling and compositing
+ * never land on the thread that services onDraw.
+ *
+ * Static layers (the interactive and ambient backgrounds, both surface-sized) are rebuilt when
+ * the surface, theme or ambient capabilities change; each build allocates fresh bitmaps and is
+ * published with an atomic swap, so the front set is never written to. The ambient per-minute
+ * layer (background plus hour and minute lumps) changes every minute, so it is baked a minute
+ * ahead into one of a few reused buffers and then swapped to the front. A reader marks the
+ * buffer it is blitting with {@link #acquireMinuteLayer()}, and the worker never draws into the
+ * front buffer or a marked one, so neither side ever waits on the other.
+ *
+ * Sprites for the animated {@link BokehLayer} are decoded and scaled here too.
+ *
+ * Static layers are also kept in a {@link LayerCache}, so after a restart they are read back
+ * from disk instead of being rebuilt from the source images.
+ */
+class RenderPrepThread {
+
+    private static final int MSG_BUILD_STATIC_LAYERS = 0;
+    private static final int MSG_BUILD_MINUTE_LAYER = 1;
+    private static final int MSG_BUILD_BOKEH_SPRITES = 2;
+
+    /* Ring artwork size over cosmos artwork size. */
+    private static final float AMBIENT_RING_SCALE = 480f / 408f;
+
+    private static final int[] BOKEH_SPRITES = {R.drawable.bokeh_1, R.drawable.bokeh_2, R.drawable.bokeh_3};
+
+    /**
+     * Told about new results; always called on the main thread.
+     */
+    interface Listener {
+        void onLayersPublished();
+
+        void onPaletteExtracted(PaletteExtractor.Colours colours);
+    }
+
+    /**
+     * What the static layers should look like. Immutable, so it can be handed to the worker.
+     */
+    static class LayerSpec {
+        final int generation;
+        final int width;
+        final int height;
+        /* False on low-bit and burn-in devices, where ambient is plain black. */
+        final boolean grayAmbient;
+        final File themeBackground;
+        final File themeAmbientBackground;
+        /* Whether to derive hand colours from the baked background. */
+        final boolean extractPalette;
+
+        LayerSpec(int generation, int width, int height, boolean grayAmbient,
+                  File themeBackground, File themeAmbientBackground, boolean extractPalette) {
+            this.generation = generation;
+            this.width = width;
+            this.height = height;
+            this.grayAmbient = grayAmbient;
+            this.themeBackground = themeBackground;
+            this.themeAmbientBackground = themeAmbientBackground;
+            this.extractPalette = extractPalette;
+        }
+    }
+
+    static class StaticLayers {
+        final LayerSpec spec;
+        final Bitmap background;
+        /* Null when the spec has no gray ambient. */
+        final Bitmap ambientBackground;
+        /* Whether these were read back from the LayerCache rather than built. */
+        final boolean fromCache;
+
+        StaticLayers(LayerSpec spec, Bitmap background, Bitmap ambientBackground, boolean fromCache) {
+            this.spec = spec;
+            this.background = background;
+            this.ambientBackground = ambientBackground;
+            this.fromCache = fromCache;
+        }
+    }
+
+    /**
+     * Ambient background with the hour and minute lumps for one minute baked in. Only written
+     * by the worker before it is published, so readers need no lock.
+     */
+    static class MinuteLayer {
+        final Bitmap bitmap;
+        int generation = -1;
+        int minuteOfDay = -1;
+        final Rect peekCardBounds = new Rect();
+
+        MinuteLayer(int width, int height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+
+        boolean matches(int generation, int minuteOfDay, Rect peekCardBounds) {
+            return this.generation == generation
+                    && this.minuteOfDay == minuteOfDay
+                    && this.peekCardBounds.equals(peekCardBounds);
+        }
+    }
+
+    private static class MinuteRequest {
+        final int minuteOfDay;
+        final float hoursRotation;
+        final float minutesRotation;
+        final Rect peekCardBounds;
+
+        MinuteRequest(int minuteOfDay, float hoursRotation, float minutesRotation, Rect peekCardBounds) {
+            this.minuteOfDay = minuteOfDay;
+            this.hoursRotation = hoursRotation;
+            this.minutesRotation = minutesRotation;
+            this.peekCardBounds = new Rect(peekCardBounds);
+        }
+    }
+
+    private final Resources mResources;
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+    private final PaletteExtractor mPaletteExtractor;
+    private final LayerCache mLayerCache;
+    private final Runnable mPublish = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onLayersPublished();
+        }
+    };
+
+    private final AtomicReference<StaticLayers> mStaticLayers = new AtomicReference<>();
+    private final AtomicReference<MinuteLayer> mFrontMinuteLayer = new AtomicReference<>();
+    /* The minute layer a reader is blitting, if any. */
+    private final AtomicReference<MinuteLayer> mMinuteLayerInUse = new AtomicReference<>();
+    private final AtomicReference<Bitmap[]> mBokehSprites = new AtomicReference<>();
+    /*
+     * Only touched by the worker. Three buffers always leave one that is neither the front nor
+     * in use.
+     */
+    private final MinuteLayer[] mMinuteLayers = new MinuteLayer[3];
+
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mLumpPaint = new Paint();
+    /*
+     * The gray ring has always been sized as if the ring artwork shared the cosmos image's
+     * scale, which leaves only a sliver of it at the edge of the ambient face.
+     */
+    private final RingRenderer mGrayRing = new RingRenderer(AMBIENT_RING_SCALE, true);
+
+    RenderPrepThread(Context context, Listener listener) {
+        mResources = context.getResources();
+        mListener = listener;
+        mPaletteExtractor = new PaletteExtractor(context);
+        mLayerCache = new LayerCache(context);
+
+        mBackgroundPaint.setColor(Color.BLACK);
+        mLumpPaint.setAntiAlias(true);
+        mLumpPaint.setColor(FaceRenderer.LUMP_COLOUR);
+
+        mThread = new HandlerThread("RenderPrep", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_BUILD_STATIC_LAYERS:
+                        buildStaticLayers((LayerSpec) msg.obj);
+                        break;
+                    case MSG_BUILD_MINUTE_LAYER:
+                        buildMinuteLayer((MinuteRequest) msg.obj);
+                        break;
+                    case MSG_BUILD_BOKEH_SPRITES:
+                        buildBokehSprites(msg.arg1);
+                        break;
+                }
+            }
+        };
+    }
+
+    StaticLayers getStaticLayers() {
+        return mStaticLayers.get();
+    }
+
+    /**
+     * Returns the current minute layer, or null, and keeps the worker from drawing into it until
+     * {@link #releaseMinuteLayer()}. Only call from the drawing thread.
+     */
+    MinuteLayer acquireMinuteLayer() {
+        MinuteLayer layer;
+        do {
+            layer = mFrontMinuteLayer.get();
+            mMinuteLayerInUse.set(layer);
+            /* If the front moved meanwhile the worker may already have picked this buffer. */
+        } while (layer != mFrontMinuteLayer.get());
+        return layer;
+    }
+
+    void releaseMinuteLayer() {
+        mMinuteLayerInUse.set(null);
+    }
+
+    /**
+     * Returns the bokeh sprites, all square and the same size, or null if not built yet.
+     */
+    Bitmap[] getBokehSprites() {
+        return mBokehSprites.get();
+    }
+
+    /**
+     * Queues a static rebuild, replacing any rebuild that hasn't started yet.
+     */
+    void requestStaticLayers(LayerSpec spec) {
+        mWorkerHandler.removeMessages(MSG_BUILD_STATIC_LAYERS);
+        mWorkerHandler.obtainMessage(MSG_BUILD_STATIC_LAYERS, spec).sendToTarget();
+    }
+
+    /**
+     * Queues the ambient layer for the given minute, usually the next one, so it is ready before
+     * it is needed. Repeated requests coalesce. The layer is not announced through
+     * {@link Listener#onLayersPublished()}, as it doesn't change the current frame.
+     */
+    void requestMinuteLayer(int minuteOfDay, float hoursRotation, float minutesRotation,
+                            Rect peekCardBounds) {
+        mWorkerHandler.removeMessages(MSG_BUILD_MINUTE_LAYER);
+        mWorkerHandler.obtainMessage(MSG_BUILD_MINUTE_LAYER,
+                new MinuteRequest(minuteOfDay, hoursRotation, minutesRotation, peekCardBounds))
+                .sendToTarget();
+    }
+
+    /**
+     * Queues decoding the bokeh sprites at the given size, replacing any pending request.
+     */
+    void requestBokehSprites(int size) {
+        mWorkerHandler.removeMessages(MSG_BUILD_BOKEH_SPRITES);
+        mWorkerHandler.obtainMessage(MSG_BUILD_BOKEH_SPRITES, size, 0).sendToTarget();
+    }
+
+    void quit() {
+        mWorkerHandler.removeCallbacksAndMessages(null);
+        mMainHandler.removeCallbacksAndMessages(null);
+        mThread.quit();
+    }
+
+    private void buildStaticLayers(LayerSpec spec) {
+        StaticLayers cached = mLayerCache.load(spec);
+        if (cached != null) {
+            mStaticLayers.set(cached);
+            publish();
+            extractPalette(cached);
+            return;
+        }
+
+        Bitmap cosmos = BitmapFactory.decodeResource(mResources, R.drawable.cosmos);
+        Bitmap bokeh = BitmapFactory.decodeResource(mResources, R.drawable.bokeh);
+
+        Matrix matrixCosmos = scaleToSurface(cosmos, spec);
+
+        Bitmap background = createLayer(spec);
+        Canvas canvas = new Canvas(background);
+        drawBackground(canvas, spec.themeBackground, cosmos, matrixCosmos, spec);
+        canvas.drawBitmap(bokeh, matrixCosmos, mBackgroundPaint);
+
+        Bitmap ambientBackground = null;
+        if (spec.grayAmbient) {
+            ambientBackground = createLayer(spec);
+            canvas.setBitmap(ambientBackground);
+            drawBackground(canvas, spec.themeAmbientBackground, cosmos, matrixCosmos, spec);
+            canvas.drawBitmap(bokeh, matrixCosmos, mBackgroundPaint);
+
+            mGrayRing.onSurfaceChanged(spec.width, spec.height);
+            mGrayRing.drawRing(canvas, false);
+        }
+
+        cosmos.recycle();
+        bokeh.recycle();
+
+        StaticLayers layers = new StaticLayers(spec, background, ambientBackground, false);
+        mStaticLayers.set(layers);
+        publish();
+        extractPalette(layers);
+        mLayerCache.store(layers);
+    }
+
+    /* After publishing, so the first frame never waits on extraction. */
+    private void extractPalette(StaticLayers layers) {
+        if (!layers.spec.extractPalette) {
+            return;
+        }
+        final PaletteExtractor.Colours colours = mPaletteExtractor.extract(
+                mLayerCache.sourceKey(layers.spec.themeBackground), layers.background);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onPaletteExtracted(colours);
+            }
+        });
+    }
+
+    private void drawBackground(Canvas canvas, File themeLayer, Bitmap cosmos, Matrix matrixCosmos,
+                                LayerSpec spec) {
+        Bitmap themed = themeLayer == null ? null : BitmapFactory.decodeFile(themeLayer.getPath());
+        if (themed != null) {
+            canvas.drawBitmap(themed, scaleToSurface(themed, spec), mBackgroundPaint);
+            themed.recycle();
+        } else {
+            canvas.drawBitmap(cosmos, matrixCosmos, mBackgroundPaint);
+        }
+    }
+
+    private void buildMinuteLayer(MinuteRequest request) {
+        StaticLayers layers = mStaticLayers.get();
+        if (layers == null) {
+            /* The static build queued ahead of us failed or hasn't been requested. */
+            return;
+        }
+        LayerSpec spec = layers.spec;
+
+        MinuteLayer front = mFrontMinuteLayer.get();
+        if (front != null && front.bitmap.getWidth() == spec.width
+                && front.bitmap.getHeight() == spec.height
+                && front.matches(spec.generation, request.minuteOfDay, request.peekCardBounds)) {
+            return;
+        }
+
+        MinuteLayer back = null;
+        MinuteLayer inUse = mMinuteLayerInUse.get();
+        for (int i = 0; i < mMinuteLayers.length && back == null; i++) {
+            MinuteLayer candidate = mMinuteLayers[i];
+            if (candidate == null || candidate.bitmap.getWidth() != spec.width
+                    || candidate.bitmap.getHeight() != spec.height) {
+                /* A fresh buffer can't be in use; a replaced one is left to the collector. */
+                back = new MinuteLayer(spec.width, spec.height);
+                mMinuteLayers[i] = back;
+            } else if (candidate != front && candidate != inUse) {
+                back = candidate;
+            }
+        }
+
+        Canvas canvas = new Canvas(back.bitmap);
+        if (layers.ambientBackground != null) {
+            canvas.drawBitmap(layers.ambientBackground, 0, 0, null);
+        } else {
+            canvas.drawColor(Color.BLACK);
+        }
+        canvas.drawRect(request.peekCardBounds, mBackgroundPaint);
+
+        float centerX = spec.width / 2f;
+        float centerY = spec.height / 2f;
+        float circleRadius = centerX / 10;
+        drawLump(canvas, request.minutesRotation, centerX, centerY, circleRadius);
+        drawLump(canvas, request.hoursRotation, centerX, centerY, circleRadius);
+
+        back.generation = spec.generation;
+        back.minuteOfDay = request.minuteOfDay;
+        back.peekCardBounds.set(request.peekCardBounds);
+
+        mFrontMinuteLayer.set(back);
+    }
+
+    private void buildBokehSprites(int size) {
+        Bitmap[] current = mBokehSprites.get();
+        if (current != null && current[0].getWidth() == size) {
+            return;
+        }
+        Bitmap[] sprites = new Bitmap[BOKEH_SPRITES.length];
+        for (int i = 0; i < sprites.length; i++) {
+            /* The sources are several hundred pixels; sample down before scaling to size. */
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            options.inScaled = false;
+            BitmapFactory.decodeResource(mResources, BOKEH_SPRITES[i], options);
+            options.inSampleSize = 1;
+            while (options.outWidth / (options.inSampleSize * 2) >= size
+                    && options.outHeight / (options.inSampleSize * 2) >= size) {
+                options.inSampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            Bitmap sampled = BitmapFactory.decodeResource(mResources, BOKEH_SPRITES[i], options);
+            sprites[i] = Bitmap.createScaledBitmap(sampled, size, size, true);
+            if (sprites[i] != sampled) {
+                sampled.recycle();
+            }
+        }
+        mBokehSprites.set(sprites);
+        publish();
+    }
+
+    private void drawLump(Canvas canvas, float rotation, float centerX, float centerY, float radius) {
+        canvas.save();
+        canvas.rotate(rotation, centerX, centerY);
+        canvas.translate(0, (float) (-centerX * 0.9));
+        canvas.drawCircle(centerX, centerY, radius, mLumpPaint);
+        canvas.restore();
+    }
+
+    private void publish() {
+        mMainHandler.post(mPublish);
+    }
+
+    private static Bitmap createLayer(LayerSpec spec) {
+        return Bitmap.createBitmap(spec.width, spec.height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static Matrix scaleToSurface(Bitmap bitmap, LayerSpec spec) {
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) spec.width / bitmap.getWidth(), (float) spec.height / bitmap.getHeight());
+        return matrix;
+    }
+}
@@ -0,0 +1,95 @@
+package com.somo.face.bezierlerpface;
+
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.SweepGradient;
+
+/**
+ * Draws the pink ring and its sheen with paints and shaders instead of full-screen bitmaps.
+ *
+ * The sheen is a sweep gradient fixed to the screen, the look the gradient bitmap gave when
+ * masked onto the ring and lumps with DST_ATOP. Drawing it straight onto those shapes needs no
+ * offscreen layers, and the ring colour is just a paint colour.
+ */
+class RingRenderer {
+
+    static final int RING_COLOUR = 0xFFC34090;
+
+    /* Inner edge of the ring as a fraction of the face radius; it runs out to the edge. */
+    private static final float INNER_RADIUS = 0.842f;
+
+    /*
+     * Sheen colours every 30 degrees, starting at three o'clock and going clockwise. Two soft
+     * highlights, at one and seven o'clock, fade to nothing at four and ten.
+     */
+    private static final int[] SHEEN_COLOURS = {
+            0x02CC6699, 0x00C34090, 0x09C655AA, 0x2CE8BFDC, 0x40FBF3FB, 0x17D385B1,
+            0x01C34090, 0x00C34090, 0x07DB4992, 0x2AE1B6D5, 0x42FBF3F7, 0x1AD68FC2,
+            0x02CC6699,
+    };
+
+    private final float mScale;
+    private final Paint mRingPaint = new Paint();
+    private final Paint mSheenStrokePaint = new Paint();
+    private final Paint mSheenFillPaint = new Paint();
+
+    private float mCenterX;
+    private float mCenterY;
+    private float mRadius;
+
+    /**
+     * @param scale size of the ring relative to the face; above 1 pushes it past the edge
+     * @param gray whether to draw the ring desaturated, as in ambient
+     */
+    RingRenderer(float scale, boolean gray) {
+        mScale = scale;
+
+        mRingPaint.setAntiAlias(true);
+        mRingPaint.setStyle(Paint.Style.STROKE);
+        mRingPaint.setColor(RING_COLOUR);
+        if (gray) {
+            ColorMatrix colorMatrix = new ColorMatrix();
+            colorMatrix.setSaturation(0);
+            mRingPaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+        }
+
+        mSheenStrokePaint.setAntiAlias(true);
+        mSheenStrokePaint.setStyle(Paint.Style.STROKE);
+        mSheenFillPaint.setAntiAlias(true);
+    }
+
+    void onSurfaceChanged(int width, int height) {
+        mCenterX = width / 2f;
+        mCenterY = height / 2f;
+        float outer = mCenterX * mScale;
+        float inner = outer * INNER_RADIUS;
+        mRadius = (inner + outer) / 2;
+        mRingPaint.setStrokeWidth(outer - inner);
+        mSheenStrokePaint.setStrokeWidth(outer - inner);
+
+        float[] positions = new float[SHEEN_COLOURS.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (float) i / (positions.length - 1);
+        }
+        SweepGradient sheen = new SweepGradient(mCenterX, mCenterY, SHEEN_COLOURS, positions);
+        mSheenStrokePaint.setShader(sheen);
+        mSheenFillPaint.setShader(sheen);
+    }
+
+    void drawRing(Canvas canvas, boolean sheen) {
+        canvas.drawCircle(mCenterX, mCenterY, mRadius, mRingPaint);
+        if (sheen) {
+            canvas.drawCircle(mCenterX, mCenterY, mRadius, mSheenStrokePaint);
+        }
+    }
+
+    /**
+     * Lays the sheen over a lump and whatever is drawn on it. The canvas must not be rotated,
+     * so the highlights stay put as the lump moves round.
+     */
+    void drawSheen(Canvas canvas, float x, float y, float radius) {
+        canvas.drawCircle(x, y, radius, mSheenFillPaint);
+    }
+}
@@ -0,0 +1,194 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+import com.google.android.gms.wearable.WearableListenerService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives theme bundles and photos from the phone. Layers are fetched only when their content
+ * hash isn't already in the {@link ThemeStore}; the rest of the bundle is applied as a delta.
+ * Photos are imported here with {@link PhotoImporter}, off the engine's thread.
+ */
+public class ThemeListenerService extends WearableListenerService {
+
+    private static final String TAG = "ThemeListenerService";
+
+    private static final long CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        for (DataEvent event : dataEvents) {
+            if (event.getType() != DataEvent.TYPE_CHANGED) {
+                continue;
+            }
+            String path = event.getDataItem().getUri().getPath();
+            if (ThemeContract.PATH_THEME.equals(path)) {
+                applyTheme(DataMapItem.fromDataItem(event.getDataItem()).getDataMap());
+            } else if (ThemeContract.PATH_PHOTO.equals(path)) {
+                importPhoto(DataMapItem.fromDataItem(event.getDataItem()).getDataMap());
+            }
+        }
+    }
+
+    private void importPhoto(DataMap map) {
+        Asset asset = map.getAsset(ThemeContract.KEY_PHOTO);
+        if (asset == null) {
+            return;
+        }
+        GoogleApiClient client = connect(this);
+        if (client == null) {
+            return;
+        }
+        try {
+            DataApi.GetFdForAssetResult result = Wearable.DataApi.getFdForAsset(client, asset).await();
+            try {
+                InputStream in = result.getInputStream();
+                if (in == null) {
+                    throw new IOException("Could not open photo: " + result.getStatus());
+                }
+                ThemeStore store = new ThemeStore(this);
+                try {
+                    new PhotoImporter(store).importPhoto(in);
+                } finally {
+                    in.close();
+                }
+                /* The import replaced the theme layers the phone thinks we hold. */
+                publishSurface(client, store);
+            } finally {
+                result.release();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Importing photo failed", e);
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private void applyTheme(DataMap map) {
+        ThemeStore store = new ThemeStore(this);
+        GoogleApiClient client = connect(this);
+        if (client == null) {
+            return;
+        }
+        try {
+            DataMap layers = map.getDataMap(ThemeContract.KEY_LAYERS);
+            DataMap assets = map.getDataMap(ThemeContract.KEY_ASSETS);
+            Map<String, String> layerHashes = new HashMap<>();
+            for (String role : layers.keySet()) {
+                String hash = layers.getString(role);
+                if (!store.hasLayer(hash)) {
+                    Asset asset = assets == null ? null : assets.getAsset(hash);
+                    if (asset == null) {
+                        /* The phone thought we held it; keep the current layer for this role. */
+                        Log.w(TAG, "Missing asset for layer " + role);
+                        continue;
+                    }
+                    fetchLayer(client, store, hash, asset);
+                }
+                layerHashes.put(role, hash);
+            }
+
+            store.apply(
+                    map.getInt(ThemeContract.KEY_HAND_COLOUR),
+                    map.getInt(ThemeContract.KEY_HIGHLIGHT_COLOUR),
+                    map.getInt(ThemeContract.KEY_SHADOW_COLOUR),
+                    map.getString(ThemeContract.KEY_DIGIT_STYLE),
+                    layerHashes);
+
+            publishSurface(client, store);
+        } catch (IOException e) {
+            Log.w(TAG, "Applying theme failed", e);
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static void fetchLayer(GoogleApiClient client, ThemeStore store, String hash, Asset asset)
+            throws IOException {
+        DataApi.GetFdForAssetResult result = Wearable.DataApi.getFdForAsset(client, asset).await();
+        try {
+            InputStream in = result.getInputStream();
+            if (in == null) {
+                throw new IOException("Could not open asset " + hash + ": " + result.getStatus());
+            }
+            try {
+                store.writeLayer(hash, in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            result.release();
+        }
+    }
+
+    /**
+     * Tells the phone the surface size and the layers already held, so it can scale for this
+     * watch and leave out layers we have. Does nothing if the size hasn't changed.
+     */
+    static void publishSurfaceSizeAsync(Context context, int width, int height) {
+        if (!new ThemeStore(context).setSurfaceSize(width, height)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                publishSurface(appContext);
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * Publishes the surface size and held layers as they are now. Call after anything that
+     * changes the held layers outside a synced theme. Blocks, so call off the main thread.
+     */
+    static void publishSurface(Context context) {
+        GoogleApiClient client = connect(context);
+        if (client != null) {
+            try {
+                publishSurface(client, new ThemeStore(context));
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    private static void publishSurface(GoogleApiClient client, ThemeStore store) {
+        PutDataMapRequest request = PutDataMapRequest.create(ThemeContract.PATH_SURFACE);
+        request.getDataMap().putInt(ThemeContract.KEY_WIDTH, store.getSurfaceWidth());
+        request.getDataMap().putInt(ThemeContract.KEY_HEIGHT, store.getSurfaceHeight());
+        request.getDataMap().putStringArrayList(ThemeContract.KEY_HELD_HASHES, store.getHeldHashes());
+        Wearable.DataApi.putDataItem(client, request.asPutDataRequest()).await();
+    }
+
+    private static GoogleApiClient connect(Context context) {
+        GoogleApiClient client = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult result = client.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!result.isSuccess()) {
+            Log.w(TAG, "Could not connect to the Data Layer: " + result);
+            return null;
+        }
+        return client;
+    }
+}
@@ -0,0 +1,327 @@
+package com.somo.face.bezierlerpface;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watch-side storage for themes synced from the phone and for photos imported on the watch.
+ * Layers are kept as files named by their content hash; the rest of the theme lives in shared
+ * preferences.
+ */
+class ThemeStore {
+
+    static final String PREFS_NAME = "theme";
+
+    /** Bumped once per applied theme, so listeners can react to a single key. */
+    static final String KEY_GENERATION = "generation";
+
+    /** Whether the drifting bokeh layer is on, set from the config screen. */
+    static final String KEY_ANIMATED_BOKEH = "animated_bokeh";
+
+    private static final String KEY_SURFACE_WIDTH = "surface_width";
+    private static final String KEY_SURFACE_HEIGHT = "surface_height";
+    private static final String KEY_LAYER_PREFIX = "layer_";
+    private static final String KEY_ADAPTIVE_COLOURS = "adaptive_colours";
+    private static final String KEY_PHOTO_WIDTH = "photo_width";
+    private static final String KEY_PHOTO_HEIGHT = "photo_height";
+
+    private static final String LAYER_DIR = "themes";
+    private static final String PHOTO_DIR = "photo";
+
+    static class Theme {
+        final int handColour;
+        final int highlightColour;
+        final int shadowColour;
+        final String digitStyle;
+        /* Surface-sized layers; either may be null. */
+        final File background;
+        final File ambientBackground;
+        /* True for imported photos, whose hand colours are extracted from the background. */
+        final boolean adaptiveColours;
+
+        Theme(int handColour, int highlightColour, int shadowColour, String digitStyle,
+              File background, File ambientBackground, boolean adaptiveColours) {
+            this.handColour = handColour;
+            this.highlightColour = highlightColour;
+            this.shadowColour = shadowColour;
+            this.digitStyle = digitStyle;
+            this.background = background;
+            this.ambientBackground = ambientBackground;
+            this.adaptiveColours = adaptiveColours;
+        }
+    }
+
+    private final SharedPreferences mPreferences;
+    private final File mLayerDir;
+    private final File mPhotoDir;
+
+    ThemeStore(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mLayerDir = new File(context.getFilesDir(), LAYER_DIR);
+        mPhotoDir = new File(context.getFilesDir(), PHOTO_DIR);
+    }
+
+    SharedPreferences getPreferences() {
+        return mPreferences;
+    }
+
+    boolean hasLayer(String hash) {
+        return getLayerFile(hash).isFile();
+    }
+
+    File getLayerFile(String hash) {
+        return new File(mLayerDir, hash);
+    }
+
+    /**
+     * Streams a layer to disk. The file only appears under its hash once fully written and
+     * only if its content actually hashes to that name.
+     */
+    void writeLayer(String hash, InputStream in) throws IOException {
+        writeAtomically(in, getLayerFile(hash), hash);
+    }
+
+    /**
+     * The photo as it arrived from the phone, kept so it can be imported again for a new
+     * surface size.
+     */
+    File getPhotoOriginal() {
+        return new File(mPhotoDir, "original");
+    }
+
+    void writePhotoOriginal(InputStream in) throws IOException {
+        writeAtomically(in, getPhotoOriginal(), null);
+    }
+
+    /**
+     * Returns whether there is a photo whose layers were imported for a different surface.
+     */
+    boolean needsPhotoImport(int width, int height) {
+        return getPhotoOriginal().isFile()
+                && (mPreferences.getInt(KEY_PHOTO_WIDTH, 0) != width
+                || mPreferences.getInt(KEY_PHOTO_HEIGHT, 0) != height);
+    }
+
+    /**
+     * Makes imported photo layers the current background, with hand colours taken from it.
+     */
+    void applyPhoto(Map<String, String> layers, int width, int height) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (Map.Entry<String, String> layer : layers.entrySet()) {
+            editor.putString(KEY_LAYER_PREFIX + layer.getKey(), layer.getValue());
+        }
+        editor.putBoolean(KEY_ADAPTIVE_COLOURS, true)
+                .putInt(KEY_PHOTO_WIDTH, width)
+                .putInt(KEY_PHOTO_HEIGHT, height)
+                .putInt(KEY_GENERATION, mPreferences.getInt(KEY_GENERATION, 0) + 1)
+                .apply();
+        prune();
+    }
+
+    ArrayList<String> getHeldHashes() {
+        ArrayList<String> held = new ArrayList<>();
+        String[] names = mLayerDir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.endsWith(".tmp")) {
+                    held.add(name);
+                }
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Records a new theme, writing only the values that differ from the current one, and drops
+     * layer files the new theme no longer references. Roles missing from {@code layers} keep
+     * whatever layer they had.
+     */
+    void apply(int handColour, int highlightColour, int shadowColour, String digitStyle,
+               Map<String, String> layers) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        boolean changed = putIfChanged(editor, ThemeContract.KEY_HAND_COLOUR, handColour);
+        changed |= putIfChanged(editor, ThemeContract.KEY_HIGHLIGHT_COLOUR, highlightColour);
+        changed |= putIfChanged(editor, ThemeContract.KEY_SHADOW_COLOUR, shadowColour);
+        changed |= putIfChanged(editor, ThemeContract.KEY_DIGIT_STYLE, digitStyle);
+        for (Map.Entry<String, String> layer : layers.entrySet()) {
+            changed |= putIfChanged(editor, KEY_LAYER_PREFIX + layer.getKey(), layer.getValue());
+        }
+        if (mPreferences.getBoolean(KEY_ADAPTIVE_COLOURS, false)) {
+            /* A phone theme replaces any imported photo. */
+            editor.putBoolean(KEY_ADAPTIVE_COLOURS, false);
+            getPhotoOriginal().delete();
+            changed = true;
+        }
+        if (changed) {
+            editor.putInt(KEY_GENERATION, mPreferences.getInt(KEY_GENERATION, 0) + 1);
+            editor.apply();
+        }
+        prune();
+    }
+
+    /**
+     * Returns the synced theme, or null if the phone has never sent one.
+     */
+    Theme load() {
+        if (!mPreferences.contains(KEY_GENERATION)) {
+            return null;
+        }
+        return new Theme(
+                mPreferences.getInt(ThemeContract.KEY_HAND_COLOUR, 0),
+                mPreferences.getInt(ThemeContract.KEY_HIGHLIGHT_COLOUR, 0),
+                mPreferences.getInt(ThemeContract.KEY_SHADOW_COLOUR, 0),
+                mPreferences.getString(ThemeContract.KEY_DIGIT_STYLE, ThemeContract.DIGIT_STYLE_STROKE),
+                getLayer(ThemeContract.LAYER_BACKGROUND),
+                getLayer(ThemeContract.LAYER_AMBIENT),
+                mPreferences.getBoolean(KEY_ADAPTIVE_COLOURS, false));
+    }
+
+    boolean isAnimatedBokeh() {
+        return mPreferences.getBoolean(KEY_ANIMATED_BOKEH, false);
+    }
+
+    void setAnimatedBokeh(boolean animated) {
+        mPreferences.edit().putBoolean(KEY_ANIMATED_BOKEH, animated).apply();
+    }
+
+    /**
+     * Remembers the surface size. Returns whether it differs from the one last recorded.
+     */
+    boolean setSurfaceSize(int width, int height) {
+        if (mPreferences.getInt(KEY_SURFACE_WIDTH, 0) == width
+                && mPreferences.getInt(KEY_SURFACE_HEIGHT, 0) == height) {
+            return false;
+        }
+        mPreferences.edit()
+                .putInt(KEY_SURFACE_WIDTH, width)
+                .putInt(KEY_SURFACE_HEIGHT, height)
+                .apply();
+        return true;
+    }
+
+    int getSurfaceWidth() {
+        return mPreferences.getInt(KEY_SURFACE_WIDTH, 0);
+    }
+
+    int getSurfaceHeight() {
+        return mPreferences.getInt(KEY_SURFACE_HEIGHT, 0);
+    }
+
+    private File getLayer(String role) {
+        String hash = mPreferences.getString(KEY_LAYER_PREFIX + role, null);
+        if (hash == null || !hasLayer(hash)) {
+            return null;
+        }
+        return getLayerFile(hash);
+    }
+
+    /*
+     * Deletes layer files no role points at. Reads the preferences after the edit, which
+     * apply() has already made visible, so a role left unchanged keeps its file.
+     */
+    private void prune() {
+        Set<String> referenced = new HashSet<>();
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_LAYER_PREFIX) && entry.getValue() instanceof String) {
+                referenced.add((String) entry.getValue());
+            }
+        }
+        for (String hash : getHeldHashes()) {
+            if (!referenced.contains(hash)) {
+                getLayerFile(hash).delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the content hash layers are named by. The phone names its layers the same way, so
+     * the two share one namespace.
+     */
+    static String hash(byte[] bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * Copies to a temporary file and renames it into place. With an expected hash the content
+     * is digested on the way through and dropped before the rename if it doesn't match.
+     */
+    private static void writeAtomically(InputStream in, File target, String expectedHash)
+            throws IOException {
+        File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File tmp = new File(dir, target.getName() + ".tmp");
+        MessageDigest digest = null;
+        if (expectedHash != null) {
+            digest = newDigest();
+            in = new DigestInputStream(in, digest);
+        }
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+        }
+        if (digest != null && !expectedHash.equals(toHex(digest.digest()))) {
+            tmp.delete();
+            throw new IOException("Content of " + target + " does not match its hash");
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Could not store " + target);
+        }
+    }
+
+    private boolean putIfChanged(SharedPreferences.Editor editor, String key, int value) {
+        if (mPreferences.contains(key) && mPreferences.getInt(key, 0) == value) {
+            return false;
+        }
+        editor.putInt(key, value);
+        return true;
+    }
+
+    private boolean putIfChanged(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null || value.equals(mPreferences.getString(key, null))) {
+            return false;
+        }
+        editor.putString(key, value);
+        return true;
+    }
+}
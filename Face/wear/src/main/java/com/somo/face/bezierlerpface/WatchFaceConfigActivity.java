@@ -19,14 +19,23 @@ import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.drawable.Drawable;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.wearable.complications.ProviderChooserIntent;
 import android.support.wearable.view.WearableListView;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
@@ -35,7 +44,9 @@ import java.util.List;
 
 /**
  * The watch-side config activity for {@link McFaceService}, which
- * allows for setting complications on right and left of watch face.
+ * allows for setting complications on right and left of watch face and turning the drifting
+ * bokeh on or off. A small live preview of the face, drawn by the face's own
+ * {@link FaceRenderer}, is shown above the list.
  */
 public class WatchFaceConfigActivity extends Activity implements
         WearableListView.ClickListener {
@@ -44,9 +55,42 @@ public class WatchFaceConfigActivity extends Activity implements
 
     private static final int PROVIDER_CHOOSER_REQUEST_CODE = 1;
 
+    /*
+     * The preview is only there to show the look of the face, so a few frames a second is plenty
+     * and keeps the config screen cheap.
+     */
+    private static final long PREVIEW_FRAME_INTERVAL_MS = 250;
+
+    /* Decoded dial icons, shared across launches of the activity. */
+    private static final LruCache<Integer, Bitmap> sIconCache =
+            new LruCache<Integer, Bitmap>(512 * 1024) {
+                @Override
+                protected int sizeOf(Integer key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+
     private WearableListView mWearableConfigListView;
     private ConfigurationAdapter mAdapter;
 
+    private final Handler mPreviewHandler = new Handler();
+    private final Runnable mPreviewFrame = new Runnable() {
+        @Override
+        public void run() {
+            mPreviewFramePending = false;
+            drawPreviewFrame();
+        }
+    };
+    private ImageView mPreviewView;
+    private CheckBox mAnimatedBokehView;
+    private ThemeStore mThemeStore;
+    private FaceRenderer mPreviewRenderer;
+    private Bitmap mPreviewBitmap;
+    private Canvas mPreviewCanvas;
+    private boolean mPreviewRunning;
+    private boolean mPreviewFramePending;
+    private long mLastPreviewFrameTime;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -57,6 +101,84 @@ public class WatchFaceConfigActivity extends Activity implements
         mWearableConfigListView = (WearableListView) findViewById(R.id.wearable_list);
         mWearableConfigListView.setAdapter(mAdapter);
         mWearableConfigListView.setClickListener(this);
+
+        mPreviewView = (ImageView) findViewById(R.id.preview);
+        mAnimatedBokehView = (CheckBox) findViewById(R.id.animated_bokeh);
+        new LoadIconsTask(getResources(), mAdapter).execute();
+        new CreatePreviewTask().execute();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mPreviewRunning = true;
+        requestPreviewFrame();
+    }
+
+    @Override
+    protected void onPause() {
+        mPreviewRunning = false;
+        mPreviewFramePending = false;
+        mPreviewHandler.removeCallbacks(mPreviewFrame);
+        super.onPause();
+    }
+
+    /**
+     * Schedules a preview frame no sooner than {@link #PREVIEW_FRAME_INTERVAL_MS} after the last
+     * one. Requests made while a frame is already pending are dropped.
+     */
+    private void requestPreviewFrame() {
+        if (!mPreviewRunning || mPreviewFramePending || mPreviewCanvas == null) {
+            return;
+        }
+        mPreviewFramePending = true;
+        long sinceLast = SystemClock.uptimeMillis() - mLastPreviewFrameTime;
+        mPreviewHandler.postDelayed(mPreviewFrame, Math.max(0, PREVIEW_FRAME_INTERVAL_MS - sinceLast));
+    }
+
+    private void drawPreviewFrame() {
+        if (!mPreviewRunning) {
+            return;
+        }
+        mLastPreviewFrameTime = SystemClock.uptimeMillis();
+        mPreviewRenderer.draw(mPreviewCanvas, System.currentTimeMillis());
+        mPreviewView.invalidate();
+
+        /* Keep the seconds moving even when no digit animation asks for a frame. */
+        requestPreviewFrame();
+    }
+
+    private void onPreviewRendererCreated(FaceRenderer renderer, ThemeStore store) {
+        int size = getResources().getDimensionPixelSize(R.dimen.config_preview_size);
+        renderer.onSurfaceChanged(size, size);
+
+        mPreviewRenderer = renderer;
+        mPreviewBitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        mPreviewCanvas = new Canvas(mPreviewBitmap);
+        mPreviewView.setImageBitmap(mPreviewBitmap);
+        requestPreviewFrame();
+
+        /* The toggle needs the store and the preview, so it stays disabled until both exist. */
+        mThemeStore = store;
+        mAnimatedBokehView.setChecked(store.isAnimatedBokeh());
+        mAnimatedBokehView.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                /* The running face picks this up through its preference listener. */
+                mThemeStore.setAnimatedBokeh(isChecked);
+                mPreviewRenderer.setBokehEnabled(isChecked);
+                requestPreviewFrame();
+            }
+        });
+        mAnimatedBokehView.setEnabled(true);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mPreviewRenderer != null) {
+            mPreviewRenderer.release();
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -89,7 +211,7 @@ public class WatchFaceConfigActivity extends Activity implements
             items.add(new ComplicationItem(watchFace,
                     McFaceService.COMPLICATION_DIALS[i].id,
                     McFaceService.COMPLICATION_DIALS[i].supportedTypes,
-                    getResources().getDrawable(McFaceService.COMPLICATION_DIALS[i].iconId, null),
+                    McFaceService.COMPLICATION_DIALS[i].iconId,
                     McFaceService.COMPLICATION_DIALS[i].name));
         }
 
@@ -101,22 +223,98 @@ public class WatchFaceConfigActivity extends Activity implements
         Log.d(TAG, "onTopEmptyRegionClick()");
     }
 
+    /*
+     * Builds the preview renderer off the main thread, as it reads the synced theme from disk.
+     */
+    private class CreatePreviewTask extends AsyncTask<Void, Void, FaceRenderer> {
+        private ThemeStore mStore;
+
+        @Override
+        protected FaceRenderer doInBackground(Void... params) {
+            FaceRenderer renderer = new FaceRenderer(getApplicationContext(), new FaceRenderer.Callback() {
+                @Override
+                public void invalidate() {
+                    requestPreviewFrame();
+                }
+
+                @Override
+                public void invalidateForAnimation() {
+                    requestPreviewFrame();
+                }
+
+                @Override
+                public void onAnimationSkipped(int reason) {
+                }
+
+                @Override
+                public void onFirstFrame(long sinceCreatedMs, boolean fromCache) {
+                }
+            });
+            mStore = new ThemeStore(getApplicationContext());
+            renderer.applyTheme(mStore.load());
+            renderer.setBokehEnabled(mStore.isAnimatedBokeh());
+            return renderer;
+        }
+
+        @Override
+        protected void onPostExecute(FaceRenderer renderer) {
+            if (isDestroyed()) {
+                renderer.release();
+            } else {
+                onPreviewRendererCreated(renderer, mStore);
+            }
+        }
+    }
+
+    /*
+     * Decodes the dial icons that are not already cached, binding each one as it arrives.
+     */
+    private static class LoadIconsTask extends AsyncTask<Void, Integer, Void> {
+        private final Resources mResources;
+        private final ConfigurationAdapter mAdapter;
+
+        LoadIconsTask(Resources resources, ConfigurationAdapter adapter) {
+            mResources = resources;
+            mAdapter = adapter;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            for (int i = 0; i < mAdapter.getItemCount(); i++) {
+                int iconId = mAdapter.getItem(i).iconId;
+                if (sIconCache.get(iconId) == null) {
+                    Bitmap icon = BitmapFactory.decodeResource(mResources, iconId);
+                    if (icon != null) {
+                        sIconCache.put(iconId, icon);
+                        publishProgress(i);
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... positions) {
+            mAdapter.notifyItemChanged(positions[0]);
+        }
+    }
+
     /*
      * Inner class representing items of the ConfigurationAdapter (WearableListView.Adapter) class.
      */
-    private final class ComplicationItem {
+    private static final class ComplicationItem {
         ComponentName watchFace;
         int complicationId;
         int[] supportedTypes;
-        Drawable icon;
+        int iconId;
         String title;
 
         public ComplicationItem(ComponentName watchFace, int complicationId, int[] supportedTypes,
-                                Drawable icon, String title) {
+                                int iconId, String title) {
             this.watchFace = watchFace;
             this.complicationId = complicationId;
             this.supportedTypes = supportedTypes;
-            this.icon = icon;
+            this.iconId = iconId;
             this.title = title;
         }
     }
@@ -150,7 +348,7 @@ public class WatchFaceConfigActivity extends Activity implements
 
             // Inflate custom layout for list items.
             return new ItemViewHolder(
-                    mInflater.inflate(R.layout.activity_watch_face_config_list_item, null));
+                    mInflater.inflate(R.layout.activity_watch_face_config_list_item, parent, false));
         }
 
         @Override
@@ -159,7 +357,8 @@ public class WatchFaceConfigActivity extends Activity implements
             ItemViewHolder itemHolder = (ItemViewHolder) holder;
 
             ImageView imageView = itemHolder.iconImageView;
-            imageView.setImageDrawable(mItems.get(position).icon);
+            /* Icons are decoded by LoadIconsTask; until then the slot stays empty. */
+            imageView.setImageBitmap(sIconCache.get(mItems.get(position).iconId));
 
             TextView textView = itemHolder.textView;
             textView.setText(mItems.get(position).title);